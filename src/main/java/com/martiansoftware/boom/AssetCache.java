@@ -0,0 +1,236 @@
+package com.martiansoftware.boom;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * A bounded, size-aware in-memory cache of static assets, keyed by resolved
+ * resource path.  Assets are kept in least-recently-used order, so when adding
+ * an asset pushes the total size over the limit, the oldest are evicted from
+ * the front without searching.  Assets held outside the heap (memory-mapped
+ * files) don't count toward the size, so their number is limited separately,
+ * since each one holds a mapping and its address space until it's evicted.
+ *
+ * Hit, miss, and eviction counts are available for monitoring.
+ *
+ * @author mlamb
+ */
+public class AssetCache {
+
+    private final long _maxBytes;
+    private final long _maxEntryBytes;
+    private final int _maxMapped;
+    // access-ordered, so iteration starts at the least recently used asset.
+    // everything below is guarded by this.
+    private final Map<String, Asset> _assets = new LinkedHashMap<>(16, 0.75f, true);
+    private long _bytes = 0;
+    private int _mapped = 0;
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+
+    /**
+     * Creates a new AssetCache
+     * @param maxBytes the maximum total size of all cached assets
+     * @param maxEntryBytes the maximum size of any one cached asset
+     */
+    public AssetCache(long maxBytes, long maxEntryBytes) {
+        this(maxBytes, maxEntryBytes, 0);
+    }
+
+    /**
+     * Creates a new AssetCache that can also hold memory-mapped assets
+     * @param maxBytes the maximum total size of all cached assets
+     * @param maxEntryBytes the maximum size of any one cached asset
+     * @param maxMapped the maximum number of memory-mapped assets
+     */
+    public AssetCache(long maxBytes, long maxEntryBytes, int maxMapped) {
+        _maxBytes = maxBytes;
+        _maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        _maxMapped = maxMapped;
+    }
+
+    public long hits() { return _hits.sum(); }
+    public long misses() { return _misses.sum(); }
+    public long evictions() { return _evictions.sum(); }
+    public synchronized int count() { return _assets.size(); }
+    public synchronized long bytes() { return _bytes; }
+    public long maxBytes() { return _maxBytes; }
+    public synchronized int mapped() { return _mapped; }
+    public int maxMapped() { return _maxMapped; }
+
+    /**
+     * Would an asset holding the specified number of bytes on the heap (see
+     * Asset.length(), which includes any gzipped variant) be cached?
+     */
+    boolean accepts(long size) {
+        return size >= 0 && size <= _maxEntryBytes;
+    }
+
+    Asset get(String key) {
+        Asset a;
+        synchronized(this) {
+            a = _assets.get(key);
+        }
+        if (a == null) _misses.increment(); else _hits.increment();
+        return a;
+    }
+
+    Asset put(String key, Asset a) {
+        if (!accepts(a.length()) || a.mappings() > _maxMapped) return a;
+        synchronized(this) {
+            Asset prev = _assets.put(key, a);
+            if (prev != null) removed(prev);
+            _bytes += a.length();
+            _mapped += a.mappings();
+            evict();
+        }
+        return a;
+    }
+
+    synchronized void remove(String key) {
+        Asset a = _assets.remove(key);
+        if (a != null) removed(a);
+    }
+
+    private void removed(Asset a) {
+        _bytes -= a.length();
+        _mapped -= a.mappings();
+    }
+
+    synchronized void removeIf(Predicate<String> keyMatches) {
+        for (Iterator<Map.Entry<String, Asset>> it = _assets.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Asset> e = it.next();
+            if (keyMatches.test(e.getKey())) {
+                it.remove();
+                removed(e.getValue());
+            }
+        }
+    }
+
+    synchronized void clear() {
+        _assets.clear();
+        _bytes = 0;
+        _mapped = 0;
+    }
+
+    private void evict() {
+        Iterator<Asset> lru = _assets.values().iterator();
+        while ((_bytes > _maxBytes || _mapped > _maxMapped) && lru.hasNext()) {
+            Asset a = lru.next();
+            lru.remove();
+            removed(a);
+            _evictions.increment();
+        }
+    }
+
+    @Override public String toString() {
+        return String.format("%d assets, %d/%d bytes, %d/%d mapped, %d hits, %d misses, %d evictions",
+                                count(), bytes(), maxBytes(), mapped(), maxMapped(), hits(), misses(), evictions());
+    }
+
+    /**
+     * A cached asset: its content, MIME type, and validators, and optionally
+     * a gzipped variant of its content
+     */
+    static class Asset {
+        private final ByteBuffer _content;
+        private final String _mimeType;
+        private final long _lastModified;
+        private final String _etag;
+        private final String _encoding;
+        private final Asset _gzipped;
+        private final boolean _resident;
+        private volatile long _version = 0;
+
+        Asset(byte[] content, String mimeType, long lastModified) {
+            this(content, mimeType, lastModified, null, null);
+        }
+        
+        /**
+         * Creates a new Asset held in memory
+         * @param content the content to serve
+         * @param mimeType the MIME type of the (unencoded) content
+         * @param lastModified the last-modified time, or -1 if unknown
+         * @param encoding the content coding already applied to content, or null
+         * @param gzipped the gzipped variant of content, or null
+         */
+        Asset(byte[] content, String mimeType, long lastModified, String encoding, byte[] gzipped) {
+            this(ByteBuffer.wrap(content), mimeType, lastModified, crcTagOf(content), encoding,
+                    (gzipped == null) ? null : new Asset(gzipped, mimeType, lastModified, ResourceRoute.GZIP, null), true);
+        }
+        
+        /**
+         * Creates a new Asset whose content is held outside the heap (e.g. a
+         * memory-mapped file), and so counts against the cache's limit on
+         * mapped assets rather than its size
+         * @param content the content to serve
+         * @param mimeType the MIME type of the (unencoded) content
+         * @param lastModified the last-modified time, or -1 if unknown
+         * @param etag the ETag of content
+         * @param encoding the content coding already applied to content, or null
+         * @param gzipped the gzipped variant of content, or null
+         */
+        Asset(ByteBuffer content, String mimeType, long lastModified, String etag, String encoding, Asset gzipped) {
+            this(content, mimeType, lastModified, etag, encoding, gzipped, false);
+        }
+        
+        private Asset(ByteBuffer content, String mimeType, long lastModified, String etag, String encoding, Asset gzipped, boolean resident) {
+            _content = content.asReadOnlyBuffer();
+            _mimeType = mimeType;
+            _lastModified = lastModified;
+            _etag = etag;
+            _encoding = encoding;
+            _gzipped = gzipped;
+            _resident = resident;
+        }
+        
+        private static String crcTagOf(byte[] content) {
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length);
+            return BoomResponse.etagFor(content.length, crc.getValue());
+        }
+
+        /**
+         * The number of bytes this asset holds on the heap
+         */
+        long length() {
+            return (_resident ? _content.remaining() : 0) + (_gzipped == null ? 0 : _gzipped.length());
+        }
+        
+        /**
+         * The number of buffers this asset holds outside the heap
+         */
+        int mappings() {
+            return (_resident ? 0 : 1) + (_gzipped == null ? 0 : _gzipped.mappings());
+        }
+        
+        /**
+         * The length of the (unencoded) content
+         */
+        long contentLength() { return _content.remaining(); }
+        
+        long lastModified() { return _lastModified; }
+        
+        /**
+         * The version of the asset's source at which the asset was last known
+         * to be current; see DirectoryWatcher.version()
+         */
+        long version() { return _version; }
+        
+        Asset version(long v) { _version = v; return this; }
+
+        BoomResponse toResponse(boolean gzip) {
+            Asset a = (gzip && _gzipped != null) ? _gzipped : this;
+            BoomResponse result = new BoomResponse(a._content).as(_mimeType).etag(a._etag);
+            if (a._encoding != null) result.encoding(a._encoding);
+            if (_gzipped != null || _encoding != null) result.vary(ResourceRoute.VARY_ENCODING);
+            return (_lastModified >= 0) ? result.lastModified(_lastModified) : result;
+        }
+    }
+}
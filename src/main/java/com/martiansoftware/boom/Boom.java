@@ -5,21 +5,23 @@ import com.martiansoftware.boom.auth.FormLoginFilter;
 import com.martiansoftware.boom.auth.User;
 import com.martiansoftware.dumbtemplates.DumbTemplate;
 import com.martiansoftware.dumbtemplates.DumbTemplateStore;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.Optional;
 import java.util.ResourceBundle;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import org.eclipse.jetty.util.URIUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +37,6 @@ import spark.Spark;
 import spark.TemplateEngine;
 import spark.TemplateViewRoute;
 import spark.route.HttpMethod;
-import spark.utils.MimeParse;
 
 /**
  *
@@ -59,20 +60,44 @@ public class Boom {
     private static final boolean _debug;
     
     private static final ThreadLocal<BoomContext> _boomContext = new ThreadLocal<>();
-    private static ContextFactory _templateContextFactory = java.util.HashMap::new;
+    static final ContextFactory DEFAULT_CONTEXT_FACTORY = ContextMap::new;
+    private static volatile ContextFactory _templateContextFactory = DEFAULT_CONTEXT_FACTORY;
 
     private static final DumbTemplateStore _templates;
     private static final PathResolver _pathResolver = new PathResolver("/");
+    private static final String _boomRoot = _pathResolver.resolve("/");
     private static final List<Filter> _beforeFilters = new java.util.LinkedList<>();
     private static final List<Filter> _afterFilters = new java.util.LinkedList<>();
-    private static final Object _lock = new Object();
-    private static boolean _initializedStaticContent = false;
+    
+    /**
+     * All routes added via Boom, compiled into _router by start()
+     */
+    private static final RouteTrie.Builder _routes = new RouteTrie.Builder();
+    private static volatile RouteTrie _router = null;
+    
+    /**
+     * Set once the route table is frozen and the default static content route
+     * has been registered.  Read on every request, so volatile rather than
+     * guarded by a lock.
+     */
+    private static volatile boolean _sealed = false;
     
     static volatile Path _tmp = Paths.get(System.getProperty("java.io.tmpdir"));
     
+    /**
+     * Runs tasks submitted via fork().  Created on first use.
+     */
+    private static volatile ExecutorService _forkExecutor = null;
+    private static volatile boolean _virtualThreads = false;
+    
+    /**
+     * Negotiators for preferredEncodingOf(), by list of supported types
+     */
+    private static final Map<List<MimeType>, Negotiator> _negotiators = new java.util.concurrent.ConcurrentHashMap<>();
+    private static final int MAX_NEGOTIATORS = 64;
+    
     static {
         // TODO: allow port and static content to be done before routes are added?
-        initStaticContent();
         initThreadLocalsFilter();
         initLoginFilter();
         
@@ -89,6 +114,47 @@ public class Boom {
      */
     public static boolean debug() { return _debug; }
     
+    /**
+     * Finishes setting up Boom: registers the default static content route and
+     * seals the route table so no further routes may be added.  Call this after
+     * all of your routes are set up.  If you don't, it will be called for you
+     * when the first request arrives.
+     */
+    public static synchronized void start() {
+        if (_sealed) return;
+        // static content really should be registered after everything else
+        // (since it's mapped to /*) but leaving that up to the user is error-prone,
+        // so it's done here instead.
+        //
+        // this static content does NOT honor permissions, but DOES require
+        // authentication.
+        _permissions = null;
+        get("/*", defaultStaticContentRoute());
+        log.info("Initialized static content!");
+        
+        // spark only ever sees one route per http method; boom does the rest.
+        // methods without boom routes are left alone so that spark's own 404
+        // handling (and any routes registered directly with spark) still apply.
+        _router = _routes.build();
+        if (_router.handles(HttpMethod.connect)) Spark.connect("/*", dispatcher(HttpMethod.connect));
+        if (_router.handles(HttpMethod.delete)) Spark.delete("/*", dispatcher(HttpMethod.delete));
+        if (_router.handles(HttpMethod.get)) Spark.get("/*", dispatcher(HttpMethod.get));
+        if (_router.handles(HttpMethod.head)) Spark.head("/*", dispatcher(HttpMethod.head));
+        if (_router.handles(HttpMethod.options)) Spark.options("/*", dispatcher(HttpMethod.options));
+        if (_router.handles(HttpMethod.patch)) Spark.patch("/*", dispatcher(HttpMethod.patch));
+        if (_router.handles(HttpMethod.post)) Spark.post("/*", dispatcher(HttpMethod.post));
+        if (_router.handles(HttpMethod.put)) Spark.put("/*", dispatcher(HttpMethod.put));
+        if (_router.handles(HttpMethod.trace)) Spark.trace("/*", dispatcher(HttpMethod.trace));
+        _sealed = true;
+        log.info("Compiled {} routes.", _routes.size());
+    }
+    
+    /**
+     * Has the route table been sealed by start() (or by the first request)?
+     * @return true if no further routes may be added
+     */
+    public static boolean started() { return _sealed; }
+    
     /**
      * Returns the Spark Request that is currently being serviced
      * @return the Spark Request that is currently being serviced
@@ -101,6 +167,48 @@ public class Boom {
     */
     public static Response response() { return _boomContext.get().response; }
     
+    /**
+     * Returns the value of a path parameter from the route that matched the
+     * current request, e.g. "id" or ":id" for a route added as "/things/:id".
+     * Use this rather than Spark's Request.params(), which only sees Boom's
+     * catch-all route.
+     * 
+     * @param name the name of the parameter, with or without the leading ':'
+     * @return the (url-decoded) value of the parameter, or null if there is none
+     */
+    public static String params(String name) { 
+        RouteTrie.Match m = _boomContext.get().match;
+        return m == null ? null : m.param(name);
+    }
+    
+    /**
+     * Describes the route that matched the current request, e.g. for logging
+     * @return the method and path the route was added with, e.g. "GET /things/:id"
+     */
+    static String routeName() {
+        RouteTrie.Match m = _boomContext.get().match;
+        return m == null ? "(no route)" : m.endpoint.method + " " + m.endpoint.path;
+    }
+    
+    /**
+     * Returns all path parameters from the route that matched the current request
+     * @return all path parameters, keyed by lower-case name including the leading ':'
+     */
+    public static Map<String, String> params() {
+        RouteTrie.Match m = _boomContext.get().match;
+        return m == null ? java.util.Collections.emptyMap() : m.params();
+    }
+    
+    /**
+     * Returns the values matched by splats ("*") in the route that matched the
+     * current request
+     * @return the splat values, in order
+     */
+    public static String[] splat() {
+        RouteTrie.Match m = _boomContext.get().match;
+        return m == null ? new String[0] : m.splat();
+    }
+    
     public static String resolvePath(String path) { return _pathResolver.resolve(path).toString(); }
 
     /**
@@ -168,12 +276,103 @@ public class Boom {
      */
     public static Path tmp() throws IOException { return _boomContext.get().tmp(); }
     
+    /**
+     * Requests that fork() run tasks on virtual threads rather than pooled
+     * platform threads.  Virtual threads are only available on JDK 21 and
+     * later; on older JDKs this has no effect.
+     * 
+     * @param useVirtualThreads true to use virtual threads if available
+     * @return true if fork() will use virtual threads
+     */
+    public static synchronized boolean virtualThreads(boolean useVirtualThreads) {
+        if (useVirtualThreads && !VirtualThreads.available()) {
+            log.warn("Virtual threads are not available in this JVM; using platform threads.");
+        }
+        boolean result = useVirtualThreads && VirtualThreads.available();
+        if (result != _virtualThreads) {
+            _virtualThreads = result;
+            // swapped out before it's shut down, so only a fork() that has
+            // already read it can be rejected by it; see fork()
+            ExecutorService old = _forkExecutor;
+            _forkExecutor = null;
+            if (old != null) old.shutdown(); // lets already-forked tasks finish
+        }
+        return result;
+    }
+    
+    private static ExecutorService forkExecutor() {
+        ExecutorService result = _forkExecutor;
+        if (result == null) {
+            synchronized(Boom.class) {
+                if (_forkExecutor == null) {
+                    _forkExecutor = _virtualThreads ? VirtualThreads.virtualThreads() : VirtualThreads.platformThreads();
+                }
+                result = _forkExecutor;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Runs a blocking task on another thread (a virtual thread if enabled via
+     * virtualThreads()), with request(), response(), context() etc. available
+     * to it just as they are to the route handler that forked it.  This lets
+     * a handler run several slow calls (database, files, remote URLs)
+     * concurrently rather than one after another.
+     * 
+     * The forked task shares the handler's request state, which is recycled
+     * once the request completes, so the handler must wait for the task (or
+     * return its future) rather than leaving it running.  The template context
+     * is not thread safe; don't modify it from more than one thread at a time.
+     * 
+     * @param <T> the type of the task's result
+     * @param task the task to run
+     * @return a future that completes with the result of the task
+     */
+    public static <T> CompletableFuture<T> fork(Callable<T> task) {
+        BoomContext bc = _boomContext.get();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable r = () -> {
+            BoomContext prev = _boomContext.get();
+            _boomContext.set(bc);
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                if (prev == null) _boomContext.remove(); else _boomContext.set(prev);
+            }
+        };
+        for (ExecutorService executor = forkExecutor(); ; ) {
+            try {
+                executor.execute(r);
+                return result;
+            } catch (RejectedExecutionException e) {
+                // virtualThreads() replaced and shut down the executor after
+                // it was read here, so try its replacement
+                ExecutorService current = forkExecutor();
+                if (current == executor) throw e;
+                executor = current;
+            }
+        }
+    }
+    
     /**
      * Specify a ContextFactory to provide a preinitialized or otherwise specialized context
      * @param cf the ContextFactory to use for all requests
      */
     public static void contextFactory(ContextFactory cf) { _templateContextFactory = cf; }
     
+    /**
+     * Creates a template context that isn't tied to any request, as the
+     * ContextFactory would for a new request
+     */
+    static Map<String, Object> newContext() {
+        Map<String, Object> result = _templateContextFactory.createContext();
+        result.put(Constants.BOOM_ROOT, _boomRoot);
+        return result;
+    }
+    
     /**
      * Convert a path to a canonical form. All instances of "." and ".." are
      * factored out. "/" is returned if the path tries to .. above its root.
@@ -217,26 +416,32 @@ public class Boom {
      * Given one or more encoding options for a response, selects the one most
      * preferred by the current client.  If none of the supported encodings are
      * acceptable by the client or if an unknown MIME type is specified, the
-     * request is halted with status 406 (Not Acceptable).
+     * request is halted with status 406 (Not Acceptable).  If the client likes
+     * more than one equally, the first one listed wins.
+     * 
+     * A Negotiator is kept for each distinct list of supported types, so this
+     * is cheap to call on every request; see Negotiator to hold one yourself.
      * @param supportedMimeTypes the MIME types that you as the developer are
      * prepared to return
      * @return the client's preferred selection of the supported MIME types, or
      * else will halt with status 406 (Not Acceptable)
      */
     public static MimeType preferredEncodingOf(MimeType... supportedMimeTypes) {
-        Collection<String> supported = Arrays.asList(supportedMimeTypes).stream().map(m -> m.toString()).collect(Collectors.toSet());
-        String bestMatch = MimeParse.bestMatch(supported, h("Accept"));
-        if (bestMatch.equals(MimeParse.NO_MIME_TYPE)) halt(406);
-        MimeType m = MimeType.forName(bestMatch);
-        if (m == null) halt(406);
-        return m;
+        List<MimeType> key = Arrays.asList(supportedMimeTypes);
+        Negotiator n = _negotiators.get(key);
+        if (n == null) {
+            n = new Negotiator(supportedMimeTypes);
+            if (_negotiators.size() >= MAX_NEGOTIATORS) _negotiators.clear();
+            _negotiators.put(new java.util.ArrayList<>(key), n);
+        }
+        return n.choose();
     }
     
     /**
      * Returns the working template context
      * @return the working template context
      */
-    public static Map<String, Object> context() { return _boomContext.get().templateContext; }
+    public static Map<String, Object> context() { return _boomContext.get().templateContext(); }
     public static void context(String key, Object value) { context().put(key, value); }
     public static Object context(String key) { return context().get(key); }
     
@@ -247,6 +452,17 @@ public class Boom {
     // basic template accessors
     public static DumbTemplate template(String templatePath) { return _templates.get(templatePath); }
     public static DumbTemplateStore templateStore() { return _templates; }
+    
+    /**
+     * Parses all templates under /templates and /boom-default-templates now,
+     * in parallel, rather than each on its first use.  Call this at startup so
+     * that broken templates are caught before any traffic arrives and first
+     * requests don't pay for parsing.  In debug mode, templates from the source
+     * tree are still loaded as they change.
+     * 
+     * @throws IllegalStateException naming every template that couldn't be loaded
+     */
+    public static void preloadTemplates() { Templates.preload(_templates); }
 
     // TODO: clientSession() for play-framework-like remote sessions
     public static Session session(boolean create) { return request().session(create); }
@@ -311,31 +527,6 @@ public class Boom {
         return wrapped; // TODO: ensure context cleanup here!
     }    
     
-    // below methods set up all the static boom fun stuff
-    static void initStaticContent() {
-        // static content really should be registered after everything else
-        // (since it's mapped to /*) but leaving that up to the user is error-prone,
-        // so instead we insert a filter that will run once on the first request
-        // to initialize the static content.
-        //
-        // this static content does NOT honor permissions, but DOES require
-        // authentication.
-        //
-        // TODO: This could be confounded by requests that come in before all
-        // of the routes are set up.  This should be fixed.
-        log.info("initStaticContent");
-        before("/*", (req, rsp) -> {
-            synchronized(_lock) {
-                if (!_initializedStaticContent) {
-                    _permissions = null;
-                    get("/*", defaultStaticContentRoute());
-                    _initializedStaticContent = true;
-                    log.info("Initialized static content!");
-                } 
-            }
-        });
-    }
-
     public static Route defaultStaticContentRoute() {
         ResourceRoute result = new ClasspathResourceRoute(Constants.STATIC_CONTENT_PRODUCTION);
         if (debug()) result = new FilesystemResourceRoute(Constants.STATIC_CONTENT_DEBUG, result);
@@ -349,12 +540,29 @@ public class Boom {
     private static void initThreadLocalsFilter() {
         Spark.before((Request req, Response rsp) -> {
             log.trace("FILTER: initThreadLocals");
-            Map<String, Object> tctx = _templateContextFactory.createContext();
-            tctx.put(Constants.BOOM_ROOT, _pathResolver.resolve("/"));
-            _boomContext.set(new BoomContext(req, rsp, tctx));            
+            if (!_sealed) start(); // only synchronizes until the first request has sealed things
+            BoomContext bc = _boomContext.get();
+            if (bc == null) {
+                bc = new BoomContext();
+                _boomContext.set(bc);
+            }
+            bc.reset(req, rsp, _templateContextFactory, _boomRoot);
         });        
     }
     
+    private static Route dispatcher(HttpMethod method) {
+        return (Request req, Response rsp) -> {
+            String uri = req.raw().getRequestURI();
+            RouteTrie.Match m = _router.find(method, uri, req.headers("Accept"));
+            // returning null without a body lets spark carry on as if this
+            // route didn't match: other handlers get a chance, then its 404
+            if (m == null) return null;
+            _boomContext.get().match = m;
+            SparkMatch.apply(req, m.endpoint, uri);
+            return m.endpoint.route.handle(req, rsp);
+        };
+    }
+    
     private static void initLoginFilter() {
         Spark.before((Request req, Response rsp) -> {
             log.trace("FILTER: loginFilter");
@@ -375,35 +583,49 @@ public class Boom {
                                     TemplateViewRoute tvr,
                                     TemplateEngine engine) {
         
-        synchronized(_lock) {
-            if (_initializedStaticContent) throw new IllegalStateException("Too late to add routes - static content already initialized.");
-        }
+        if (_sealed) throw new IllegalStateException("Too late to add routes - Boom has already started.");
         
         if (log.isDebugEnabled()) {
             StackTraceElement[] stack = Thread.currentThread().getStackTrace();
             log.debug("Adding route for {} {} from {}", method, path, stack[3]);
             log.debug("Adding route with {} filter(s) before and {} after.", _beforeFilters.size(), _afterFilters.size());
         }
-        if (acceptType == null) {            
-            _beforeFilters.stream().forEach(f -> Spark.before(path, f));
-            _afterFilters.stream().forEach(f -> Spark.after(path, f));
+        
+        Route r;
+        if (tvr != null) {
+            TemplateViewRoute wrapped = boomwrap(tvr);
+            r = (req, rsp) -> engine.render(wrapped.handle(req, rsp));
+        } else if (transformer != null) {
+            Route wrapped = boomwrap(route);
+            r = (req, rsp) -> transformer.render(wrapped.handle(req, rsp));
         } else {
-            _beforeFilters.stream().forEach(f -> Spark.before(path, acceptType, f));
-            _afterFilters.stream().forEach(f -> Spark.after(path, acceptType, f));
+            r = boomwrap(route);
         }
+        _routes.add(method, path, acceptType, new RouteChain(_beforeFilters, r, _afterFilters));
     }
     
     // a whole bunch of convenient methods for creating BoomResponses of various typs
     public static BoomResponse binary(InputStream in) { return new BoomResponse(in).as(MimeType.BIN); }
     public static BoomResponse binary(File f) throws IOException { return new BoomResponse(f).as(MimeType.BIN).named(f.getName()); }
-    public static BoomResponse binary(byte[] b) { return new BoomResponse(new ByteArrayInputStream(b)).as(MimeType.BIN); }
-    public static BoomResponse binary(byte[] b, int offset, int len) { return new BoomResponse(new ByteArrayInputStream(b, offset, len)).as(MimeType.BIN); }
+    public static BoomResponse binary(Path p) throws IOException { return new BoomResponse(p).as(MimeType.BIN).named(String.valueOf(p.getFileName())); }
+    public static BoomResponse binary(byte[] b) { return new BoomResponse(ByteBuffer.wrap(b)).as(MimeType.BIN); }
+    public static BoomResponse binary(byte[] b, int offset, int len) { return new BoomResponse(ByteBuffer.wrap(b, offset, len)).as(MimeType.BIN); }
+    public static BoomResponse binary(ByteBuffer b) { return new BoomResponse(b).as(MimeType.BIN); }
     
     public static BoomResponse html(InputStream in) { return new BoomResponse(in).as(MimeType.HTML); }
     public static BoomResponse html(File f) throws IOException { return new BoomResponse(f).as(MimeType.HTML); }
     public static BoomResponse html(String s) { return new BoomResponse(s).as(MimeType.HTML); }
     
     public static BoomResponse json(Object o) { return new BoomResponse(Json.toJson(o)).as(MimeType.JSON); }
+    /**
+     * Like json(Object), but serializes the object straight to the response
+     * as it's sent rather than to a String first, so memory use doesn't grow
+     * with the size of the JSON.  As with other streamed bodies, after filters
+     * can't change the body or headers.
+     * @param o the object to serialize
+     * @return a BoomResponse that will stream the object as JSON
+     */
+    public static BoomResponse jsonStream(Object o) { return new BoomResponse(out -> Json.toJson(o, out)).as(MimeType.JSON); }
     public static BoomResponse json(String s) { return new BoomResponse(s).as(MimeType.JSON); }
     
     public static BoomResponse text(InputStream in) { return new BoomResponse(in).as(MimeType.TXT); }
@@ -420,317 +642,254 @@ public class Boom {
 // ## BEGIN GENERATED CODE - DO NOT EDIT BELOW THIS LINE ##
     public static synchronized void connect(final String path, final Route route) {
         addingRoute(HttpMethod.connect, path, null, route, null, null, null);
-        Spark.connect(path, boomwrap(route));
     }
     
     public static synchronized void connect(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.connect, path, null, route, null, null, null);
-        Spark.connect(path, boomwrap(route));
     }
     
     public static synchronized void connect(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.connect, path, null, route, transformer, null, null);
-        Spark.connect(path, boomwrap(route), transformer);
     }
     
     public static synchronized void connect(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.connect, path, acceptType, route, null, null, null);
-        Spark.connect(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void connect(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.connect, path, acceptType, route, transformer, null, null);
-        Spark.connect(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void connect(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.connect, path, acceptType, null, null, route, engine);
-        Spark.connect(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void connect(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.connect, path, null, null, null, route, engine);
-        Spark.connect(path, boomwrap(route), engine);
     }
 
     public static synchronized void delete(final String path, final Route route) {
         addingRoute(HttpMethod.delete, path, null, route, null, null, null);
-        Spark.delete(path, boomwrap(route));
     }
     
     public static synchronized void delete(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.delete, path, null, route, null, null, null);
-        Spark.delete(path, boomwrap(route));
     }
     
     public static synchronized void delete(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.delete, path, null, route, transformer, null, null);
-        Spark.delete(path, boomwrap(route), transformer);
     }
     
     public static synchronized void delete(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.delete, path, acceptType, route, null, null, null);
-        Spark.delete(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void delete(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.delete, path, acceptType, route, transformer, null, null);
-        Spark.delete(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void delete(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.delete, path, acceptType, null, null, route, engine);
-        Spark.delete(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void delete(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.delete, path, null, null, null, route, engine);
-        Spark.delete(path, boomwrap(route), engine);
     }
 
     public static synchronized void get(final String path, final Route route) {
         addingRoute(HttpMethod.get, path, null, route, null, null, null);
-        Spark.get(path, boomwrap(route));
     }
     
     public static synchronized void get(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.get, path, null, route, null, null, null);
-        Spark.get(path, boomwrap(route));
     }
     
     public static synchronized void get(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.get, path, null, route, transformer, null, null);
-        Spark.get(path, boomwrap(route), transformer);
     }
     
     public static synchronized void get(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.get, path, acceptType, route, null, null, null);
-        Spark.get(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void get(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.get, path, acceptType, route, transformer, null, null);
-        Spark.get(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void get(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.get, path, acceptType, null, null, route, engine);
-        Spark.get(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void get(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.get, path, null, null, null, route, engine);
-        Spark.get(path, boomwrap(route), engine);
     }
 
     public static synchronized void head(final String path, final Route route) {
         addingRoute(HttpMethod.head, path, null, route, null, null, null);
-        Spark.head(path, boomwrap(route));
     }
     
     public static synchronized void head(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.head, path, null, route, null, null, null);
-        Spark.head(path, boomwrap(route));
     }
     
     public static synchronized void head(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.head, path, null, route, transformer, null, null);
-        Spark.head(path, boomwrap(route), transformer);
     }
     
     public static synchronized void head(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.head, path, acceptType, route, null, null, null);
-        Spark.head(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void head(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.head, path, acceptType, route, transformer, null, null);
-        Spark.head(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void head(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.head, path, acceptType, null, null, route, engine);
-        Spark.head(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void head(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.head, path, null, null, null, route, engine);
-        Spark.head(path, boomwrap(route), engine);
     }
 
     public static synchronized void options(final String path, final Route route) {
         addingRoute(HttpMethod.options, path, null, route, null, null, null);
-        Spark.options(path, boomwrap(route));
     }
     
     public static synchronized void options(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.options, path, null, route, null, null, null);
-        Spark.options(path, boomwrap(route));
     }
     
     public static synchronized void options(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.options, path, null, route, transformer, null, null);
-        Spark.options(path, boomwrap(route), transformer);
     }
     
     public static synchronized void options(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.options, path, acceptType, route, null, null, null);
-        Spark.options(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void options(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.options, path, acceptType, route, transformer, null, null);
-        Spark.options(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void options(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.options, path, acceptType, null, null, route, engine);
-        Spark.options(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void options(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.options, path, null, null, null, route, engine);
-        Spark.options(path, boomwrap(route), engine);
     }
 
     public static synchronized void patch(final String path, final Route route) {
         addingRoute(HttpMethod.patch, path, null, route, null, null, null);
-        Spark.patch(path, boomwrap(route));
     }
     
     public static synchronized void patch(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.patch, path, null, route, null, null, null);
-        Spark.patch(path, boomwrap(route));
     }
     
     public static synchronized void patch(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.patch, path, null, route, transformer, null, null);
-        Spark.patch(path, boomwrap(route), transformer);
     }
     
     public static synchronized void patch(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.patch, path, acceptType, route, null, null, null);
-        Spark.patch(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void patch(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.patch, path, acceptType, route, transformer, null, null);
-        Spark.patch(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void patch(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.patch, path, acceptType, null, null, route, engine);
-        Spark.patch(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void patch(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.patch, path, null, null, null, route, engine);
-        Spark.patch(path, boomwrap(route), engine);
     }
 
     public static synchronized void post(final String path, final Route route) {
         addingRoute(HttpMethod.post, path, null, route, null, null, null);
-        Spark.post(path, boomwrap(route));
     }
     
     public static synchronized void post(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.post, path, null, route, null, null, null);
-        Spark.post(path, boomwrap(route));
     }
     
     public static synchronized void post(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.post, path, null, route, transformer, null, null);
-        Spark.post(path, boomwrap(route), transformer);
     }
     
     public static synchronized void post(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.post, path, acceptType, route, null, null, null);
-        Spark.post(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void post(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.post, path, acceptType, route, transformer, null, null);
-        Spark.post(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void post(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.post, path, acceptType, null, null, route, engine);
-        Spark.post(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void post(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.post, path, null, null, null, route, engine);
-        Spark.post(path, boomwrap(route), engine);
     }
 
     public static synchronized void put(final String path, final Route route) {
         addingRoute(HttpMethod.put, path, null, route, null, null, null);
-        Spark.put(path, boomwrap(route));
     }
     
     public static synchronized void put(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.put, path, null, route, null, null, null);
-        Spark.put(path, boomwrap(route));
     }
     
     public static synchronized void put(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.put, path, null, route, transformer, null, null);
-        Spark.put(path, boomwrap(route), transformer);
     }
     
     public static synchronized void put(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.put, path, acceptType, route, null, null, null);
-        Spark.put(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void put(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.put, path, acceptType, route, transformer, null, null);
-        Spark.put(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void put(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.put, path, acceptType, null, null, route, engine);
-        Spark.put(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void put(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.put, path, null, null, null, route, engine);
-        Spark.put(path, boomwrap(route), engine);
     }
 
     public static synchronized void trace(final String path, final Route route) {
         addingRoute(HttpMethod.trace, path, null, route, null, null, null);
-        Spark.trace(path, boomwrap(route));
     }
     
     public static synchronized void trace(final String path, final BoomRoute route) {
         addingRoute(HttpMethod.trace, path, null, route, null, null, null);
-        Spark.trace(path, boomwrap(route));
     }
     
     public static synchronized void trace(String path, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.trace, path, null, route, transformer, null, null);
-        Spark.trace(path, boomwrap(route), transformer);
     }
     
     public static synchronized void trace(String path, String acceptType, Route route) {
         addingRoute(HttpMethod.trace, path, acceptType, route, null, null, null);
-        Spark.trace(path, acceptType, boomwrap(route));
     }
     
     public static synchronized void trace(String path, String acceptType, Route route, ResponseTransformer transformer) {
         addingRoute(HttpMethod.trace, path, acceptType, route, transformer, null, null);
-        Spark.trace(path, acceptType, boomwrap(route), transformer);
     }
     
     public static synchronized void trace(String path, String acceptType, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.trace, path, acceptType, null, null, route, engine);
-        Spark.trace(path, acceptType, boomwrap(route), engine);
     }
     
     public static synchronized void trace(String path, TemplateViewRoute route, TemplateEngine engine) {
         addingRoute(HttpMethod.trace, path, null, null, null, route, engine);
-        Spark.trace(path, boomwrap(route), engine);
     }
 
 }
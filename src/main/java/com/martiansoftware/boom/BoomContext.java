@@ -7,27 +7,93 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 
 /**
- *
+ * Per-request state.  One BoomContext is kept per worker thread and reset()
+ * for each request it serves, along with its template context map (if the
+ * default ContextFactory is in use), so steady-state requests allocate
+ * neither.  The template context itself is only set up if the request
+ * actually asks for it.
+ * 
  * @author mlamb
  */
 class BoomContext {
     private static final Logger log = LoggerFactory.getLogger(BoomContext.class);
     
-    public final Request request;
-    public final Response response;
-    public final Map<String, Object> templateContext;
+    // requests served and BoomContexts/template contexts allocated to serve them
+    private static final LongAdder _requests = new LongAdder();
+    private static final LongAdder _allocations = new LongAdder();
+    
+    public Request request;
+    public Response response;
+    private Map<String, Object> templateContext = null;
+    private Boom.ContextFactory contextFactory = null;
+    private String boomRoot = null;
+    RouteTrie.Match match = null;
     private Path tmp = null;    
+    private final ContextMap _recycledContext = new ContextMap();
+    
+    BoomContext() {
+        _allocations.add(2); // this and _recycledContext
+    }
     
-    BoomContext(Request _request, Response _response, Map<String, Object> _templateContext) {
+    /**
+     * Prepares this context to serve a new request
+     * @param _request the request being served
+     * @param _response the response being served
+     * @param cf the factory for the template context, if one is needed
+     * @param _boomRoot the value for Constants.BOOM_ROOT in the template context
+     * @return this BoomContext
+     */
+    BoomContext reset(Request _request, Response _response, Boom.ContextFactory cf, String _boomRoot) {
+        _requests.increment();
         request = _request;
         response = _response;
-        templateContext = _templateContext;
+        contextFactory = cf;
+        boomRoot = _boomRoot;
+        releaseTemplateContext(); // in case the last request never got as far as cleanup()
+        match = null;
+        tmp = null;
+        return this;
+    }
+    
+    /**
+     * Returns the template context for the current request, creating it on first use
+     * @return the template context for the current request
+     */
+    Map<String, Object> templateContext() {
+        if (templateContext == null) {
+            if (contextFactory == Boom.DEFAULT_CONTEXT_FACTORY) {
+                templateContext = _recycledContext; // already cleared by reset() or cleanup()
+            } else {
+                templateContext = contextFactory.createContext();
+                _allocations.increment();
+            }
+            templateContext.put(Constants.BOOM_ROOT, boomRoot);
+        }
+        return templateContext;
+    }
+    
+    // drops the template context so that the previous request's values aren't
+    // kept reachable by an idle worker thread
+    private void releaseTemplateContext() {
+        templateContext = null;
+        _recycledContext.clear();
+    }
+    
+    /**
+     * Summarizes how many objects have been allocated for request state
+     * @return a human-readable summary
+     */
+    static String stats() {
+        long requests = _requests.sum(), allocations = _allocations.sum();
+        return String.format("%d requests, %d context allocations (%.3f per request)", 
+                                requests, allocations, requests == 0 ? 0.0 : (double) allocations / requests);
     }
     
     public synchronized Path tmp() throws IOException {
@@ -39,6 +105,7 @@ class BoomContext {
     
     void cleanup() {
         log.trace("Cleaning up.");
+        releaseTemplateContext();
         if (tmp != null && Files.exists(tmp)) {
             try {
                 // TODO: pull this out to an API
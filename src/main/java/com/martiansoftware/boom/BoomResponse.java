@@ -1,19 +1,40 @@
 package com.martiansoftware.boom;
 
 import com.martiansoftware.dumbtemplates.DumbTemplate;
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.HttpOutput;
 import spark.Response;
 import static com.martiansoftware.boom.Boom.context;
 
 /**
- *
+ * File and ByteBuffer bodies are handed to Jetty directly (or transferred
+ * channel-to-channel when not running under Jetty) rather than being copied
+ * through a heap buffer.
+ * 
+ * For successful GET and HEAD requests, any response whose body has a
+ * last-modified time or ETag (automatic for files) honors If-None-Match and
+ * If-Modified-Since with a 304, and any body of known length (files, buffers,
+ * or streams with a declared length) honors single and multiple byte Range
+ * requests with a 206.
+ * 
  * @author mlamb
  */
 public class BoomResponse {
@@ -21,6 +42,15 @@ public class BoomResponse {
     private int status = HttpServletResponse.SC_OK;
     private InputStream bodyStream;
     private String bodyString;
+    private String bodyText;
+    private Path bodyFile;
+    private ByteBuffer bodyBuffer;
+    private BodyWriter bodyWriter;
+    private long length = -1;
+    private long lastModified = -1;
+    private String etag = null;
+    private String encoding = null;
+    private String vary = null;
     private String mimeType = MimeType.HTML.toString();
     private String filename = null;
     
@@ -28,24 +58,116 @@ public class BoomResponse {
     public BoomResponse(InputStream in) { body(in); }
     public BoomResponse(String s) { body(s); }
     public BoomResponse(File f) throws IOException { body(f); }
+    public BoomResponse(Path p) throws IOException { body(p); }
+    public BoomResponse(ByteBuffer b) { body(b); }
+    public BoomResponse(BodyWriter w) { body(w); }
     public BoomResponse(URL url) throws IOException { body(url); }
-    public BoomResponse(DumbTemplate t) { body(t.render(context())); }
+    public BoomResponse(DumbTemplate t) { body(t); }
     
-    public BoomResponse body(InputStream in) { bodyStream = in; bodyString = null; return this; }
-    public BoomResponse body(String s) { bodyStream = null; bodyString = s; return this; }
-    public BoomResponse body(File f) throws IOException { 
-        bodyStream = new BufferedInputStream(new FileInputStream(f));
-        bodyString = null;
-        as(MimeType.forFilename(f.getName()));
+    public BoomResponse body(InputStream in) { clearBody(); bodyStream = in; return this; }
+    public BoomResponse body(String s) { clearBody(); bodyString = s; return this; }
+    /**
+     * Renders a template with the current template context and uses the
+     * result as the body.  It's encoded straight into the response through a
+     * reused buffer rather than copied to a byte[] first.
+     * @param t the template to render
+     * @return this BoomResponse
+     */
+    public BoomResponse body(DumbTemplate t) { clearBody(); bodyText = t.render(context()); return this; }
+    public BoomResponse body(File f) throws IOException { return body(f.toPath()); }
+    public BoomResponse body(Path p) throws IOException {
+        if (!Files.isRegularFile(p) || !Files.isReadable(p)) throw new FileNotFoundException(p.toString());
+        clearBody();
+        bodyFile = p;
+        as(MimeType.forPath(p));
         return this;
     }
+    /**
+     * Uses the remaining content of a ByteBuffer as the body.  The buffer's
+     * position and limit are not modified, so the same (e.g. cached or
+     * memory-mapped) buffer may be used for any number of responses.
+     * @param b the buffer to send
+     * @return this BoomResponse
+     */
+    public BoomResponse body(ByteBuffer b) { clearBody(); bodyBuffer = b; return this; }
+    /**
+     * Uses a BodyWriter to produce the body, writing it straight to the
+     * response's output stream when the response is sent.  Nothing is
+     * buffered beyond what the servlet container does, and the body is sent
+     * chunked.
+     * @param w the writer that will produce the body
+     * @return this BoomResponse
+     */
+    public BoomResponse body(BodyWriter w) { clearBody(); bodyWriter = w; return this; }
     public BoomResponse body(URL url) throws IOException {
+        clearBody();
         bodyStream = url.openStream();
-        bodyString = null;
         as(MimeType.forFilename(url.getFile().replaceAll(".*/", "")));
         return this;
     }
     
+    private void clearBody() {
+        bodyStream = null;
+        bodyString = null;
+        bodyText = null;
+        bodyFile = null;
+        bodyBuffer = null;
+        bodyWriter = null;
+        length = -1;
+        lastModified = -1;
+        etag = null;
+        encoding = null;
+    }
+    
+    /**
+     * Declares the length of an InputStream body, allowing Content-Length to
+     * be set and range requests to be served
+     * @param len the number of bytes the InputStream will provide
+     * @return this BoomResponse
+     */
+    public BoomResponse length(long len) { length = len; return this; }
+    
+    /**
+     * Sets the last-modified time of the body (automatic for files)
+     * @param millis the last-modified time in milliseconds since the epoch
+     * @return this BoomResponse
+     */
+    public BoomResponse lastModified(long millis) { lastModified = millis; return this; }
+    
+    /**
+     * Sets the ETag of the body (automatic for files)
+     * @param tag the ETag, quoted or not, optionally prefixed with "W/" if weak
+     * @return this BoomResponse
+     */
+    public BoomResponse etag(String tag) {
+        if (tag != null && !tag.startsWith("\"") && !tag.startsWith("W/")) tag = "\"" + tag + "\"";
+        etag = tag;
+        return this;
+    }
+    
+    /**
+     * Sets the Content-Encoding of the body, e.g. "gzip" for a body that's
+     * already gzipped
+     * @param contentEncoding the content coding applied to the body
+     * @return this BoomResponse
+     */
+    public BoomResponse encoding(String contentEncoding) { encoding = contentEncoding; return this; }
+    
+    /**
+     * Sets the Vary header, naming the request headers that selected this
+     * particular body
+     * @param headers the request header names, comma separated
+     * @return this BoomResponse
+     */
+    public BoomResponse vary(String headers) { vary = headers; return this; }
+    
+    /**
+     * Derives an ETag from a body's length and last-modified time
+     */
+    static String etagFor(long len, long lastModified) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(len) + "\"";
+    }
+    
     public BoomResponse named(String filename) { this.filename = filename; return this; }    
     public BoomResponse status(int statusCode) { status = statusCode; return this; }
     public BoomResponse ok() { return status(HttpServletResponse.SC_OK); }
@@ -61,26 +183,236 @@ public class BoomResponse {
         rsp.status(status);
         rsp.type(mimeType);
         if (filename != null) rsp.header("Content-Disposition", String.format("inline; filename=\"%s\"", filename));
-        if (bodyStream != null) {
-            copyStream(bodyStream, rsp.raw().getOutputStream());
-            bodyStream.close();
-            rsp.raw().getOutputStream().close();
+        if (encoding != null) rsp.header("Content-Encoding", encoding);
+        if (vary != null) rsp.header("Vary", vary);
+        if (bodyText != null) {
+            TextBody.send(bodyText, rsp.raw());
             return rsp.raw();
+        }
+        if (bodyFile == null && bodyBuffer == null && bodyStream == null && bodyWriter == null) return bodyString;
+        if (bodyWriter != null) {
+            HttpServletResponse raw = rsp.raw();
+            OutputStream out = raw.getOutputStream();
+            bodyWriter.writeTo(out);
+            out.close(); // only if the writer succeeded, so failures don't look like complete responses
+            return raw;
+        }
+        
+        try (FileChannel fc = (bodyFile == null) ? null : FileChannel.open(bodyFile, StandardOpenOption.READ);
+             InputStream in = bodyStream) {
+            
+            long len = (fc != null) ? fc.size() : (bodyBuffer != null) ? bodyBuffer.remaining() : length;
+            long lm = lastModified;
+            String tag = etag;
+            if (fc != null) {
+                if (lm < 0) lm = Files.getLastModifiedTime(bodyFile).toMillis();
+                if (tag == null) tag = etagFor(len, lm);
+            }
+            
+            HttpServletResponse raw = rsp.raw();
+            if (status == HttpServletResponse.SC_OK && isGetOrHead()) {
+                HttpServletRequest req = Boom.request().raw();
+                if (tag != null) raw.setHeader("ETag", tag);
+                if (lm >= 0) raw.setDateHeader("Last-Modified", lm);
+                if (notModified(req, tag, lm)) {
+                    raw.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return "";
+                }
+                if (len >= 0) {
+                    raw.setHeader("Accept-Ranges", "bytes");
+                    List<long[]> ranges = ifRange(req, tag, lm) ? ByteRanges.parse(req.getHeader("Range"), len) : null;
+                    if (ranges != null) return sendRanges(ranges, len, new RangeSource(fc, bodyBuffer, in), raw);
+                }
+            }
+            
+            if (len >= 0) raw.setContentLengthLong(len);
+            OutputStream out = raw.getOutputStream();
+            if (fc != null) {
+                sendChannel(fc, out);
+            } else if (bodyBuffer != null) {
+                sendBuffer(bodyBuffer.duplicate(), out);
+            } else {
+                sendStream(in, out);
+            }
+            return raw;
+        }
+    }
+    
+    private static boolean isGetOrHead() {
+        if (!Boom.isRequestThread()) return false;
+        String method = Boom.request().requestMethod();
+        return "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method);
+    }
+    
+    private static boolean notModified(HttpServletRequest req, String tag, long lm) {
+        String inm = req.getHeader("If-None-Match");
+        if (inm != null) return tag != null && etagMatches(inm, tag, false); // If-Modified-Since is ignored if If-None-Match is present
+        if (lm < 0) return false;
+        long ims = dateHeader(req, "If-Modified-Since");
+        return ims >= 0 && lm / 1000 <= ims / 1000; // http dates have one-second resolution
+    }
+    
+    static boolean ifRange(HttpServletRequest req, String tag, long lm) {
+        String ir = req.getHeader("If-Range");
+        if (ir == null) return true;
+        ir = ir.trim();
+        if (ir.startsWith("\"") || ir.startsWith("W/")) return tag != null && etagMatches(ir, tag, true);
+        long d = dateHeader(req, "If-Range");
+        return d >= 0 && lm >= 0 && d / 1000 == lm / 1000;
+    }
+    
+    private static boolean etagMatches(String header, String tag, boolean strong) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (strong) {
+                if (!candidate.startsWith("W/") && !tag.startsWith("W/") && candidate.equals(tag)) return true;
+            } else if ("*".equals(candidate) || opaque(candidate).equals(opaque(tag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+    
+    private static long dateHeader(HttpServletRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException unparseable) {
+            return -1;
+        }
+    }
+    
+    private Object sendRanges(List<long[]> ranges, long len, RangeSource src, HttpServletResponse raw) throws IOException {
+        if (ranges.isEmpty()) {
+            raw.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            raw.setHeader("Content-Range", "bytes */" + len);
+            return "";
+        }
+        
+        raw.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        OutputStream out = raw.getOutputStream();
+        if (ranges.size() == 1) {
+            long[] r = ranges.get(0);
+            raw.setHeader("Content-Range", String.format("bytes %d-%d/%d", r[0], r[1], len));
+            raw.setContentLengthLong(r[1] - r[0] + 1);
+            src.copy(r[0], r[1] - r[0] + 1, out);
+        } else {
+            String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+            byte[][] partHeaders = new byte[ranges.size()][];
+            byte[] end = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+            long total = end.length;
+            for (int i = 0; i < partHeaders.length; ++i) {
+                long[] r = ranges.get(i);
+                partHeaders[i] = String.format("--%s\r\nContent-Type: %s\r\nContent-Range: bytes %d-%d/%d\r\n\r\n", 
+                                                boundary, mimeType, r[0], r[1], len).getBytes(StandardCharsets.US_ASCII);
+                total += partHeaders[i].length + (r[1] - r[0] + 1) + 2;
+            }
+            raw.setContentType("multipart/byteranges; boundary=" + boundary);
+            raw.setContentLengthLong(total);
+            for (int i = 0; i < partHeaders.length; ++i) {
+                long[] r = ranges.get(i);
+                out.write(partHeaders[i]);
+                src.copy(r[0], r[1] - r[0] + 1, out);
+                out.write('\r');
+                out.write('\n');
+            }
+            out.write(end);
+        }
+        out.close();
+        return raw;
+    }
+    
+    /**
+     * Copies byte ranges of a body, in ascending order, to an OutputStream
+     */
+    private static class RangeSource {
+        private final FileChannel _fc;
+        private final ByteBuffer _buf;
+        private final InputStream _in;
+        private long _pos = 0; // current position of _in
+        
+        RangeSource(FileChannel fc, ByteBuffer buf, InputStream in) {
+            _fc = fc;
+            _buf = buf;
+            _in = in;
+        }
+        
+        void copy(long start, long count, OutputStream out) throws IOException {
+            if (_fc != null) {
+                WritableByteChannel wbc = Channels.newChannel(out);
+                long done = 0;
+                while (done < count) done += _fc.transferTo(start + done, count - done, wbc);
+            } else if (_buf != null) {
+                ByteBuffer b = _buf.duplicate();
+                b.position(b.position() + (int) start);
+                b.limit(b.position() + (int) count);
+                WritableByteChannel wbc = Channels.newChannel(out);
+                while (b.hasRemaining()) wbc.write(b);
+            } else {
+                for (long skip = start - _pos; skip > 0; ) {
+                    long n = _in.skip(skip);
+                    if (n <= 0) {
+                        if (_in.read() < 0) throw new EOFException();
+                        n = 1;
+                    }
+                    skip -= n;
+                }
+                byte[] buf = new byte[8192];
+                for (long remaining = count; remaining > 0; ) {
+                    int n = _in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (n < 0) throw new EOFException();
+                    out.write(buf, 0, n);
+                    remaining -= n;
+                }
+                _pos = start + count;
+            }
+        }
+    }
+    
+    // each of the below sends the entire body and closes the output stream.
+    // jetty's sendContent() writes ByteBuffers as-is and reads channels and
+    // streams through its own pooled buffers, rather than copying everything
+    // through a new heap array.
+    
+    private static void sendChannel(FileChannel from, OutputStream to) throws IOException {
+        if (to instanceof HttpOutput) {
+            ((HttpOutput) to).sendContent(from);
         } else {
-            return bodyString;
+            WritableByteChannel wbc = Channels.newChannel(to);
+            long pos = 0, len = from.size();
+            while (pos < len) pos += from.transferTo(pos, len - pos, wbc);
+            to.close();
         }
     }
     
-    private void copyStream(InputStream from, OutputStream to) throws IOException {
-        int len, bufsize = 8192;
-        byte[] buf = new byte[bufsize];
-        while ((len = from.read(buf)) != -1) to.write(buf, 0, len);
+    private static void sendBuffer(ByteBuffer from, OutputStream to) throws IOException {
+        if (to instanceof HttpOutput) {
+            ((HttpOutput) to).sendContent(from);
+        } else {
+            WritableByteChannel wbc = Channels.newChannel(to);
+            while (from.hasRemaining()) wbc.write(from);
+            to.close();
+        }
+    }
+    
+    private static void sendStream(InputStream from, OutputStream to) throws IOException {
+        if (to instanceof HttpOutput) {
+            ((HttpOutput) to).sendContent(from);
+        } else {
+            int len, bufsize = 8192;
+            byte[] buf = new byte[bufsize];
+            while ((len = from.read(buf)) != -1) to.write(buf, 0, len);
+            to.close();
+        }
     }
 
     @Override public String toString() {
         StringBuilder sb = new StringBuilder(this.getClass().getName());
         sb.append(": ");
-        sb.append((bodyStream == null) ? "(String)" : "(InputStream)");
+        sb.append(bodyFile != null ? "(File)" : bodyBuffer != null ? "(ByteBuffer)" : bodyStream != null ? "(InputStream)" : bodyWriter != null ? "(BodyWriter)" : bodyText != null ? "(DumbTemplate)" : "(String)");
         sb.append(" type: ");
         sb.append(mimeType);
         sb.append(" status: ");
@@ -88,4 +420,19 @@ public class BoomResponse {
         return sb.toString();
     }
             
+    /**
+     * Produces a response body by writing it to an OutputStream
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+        /**
+         * Writes the body.  The stream is closed afterwards by the caller if
+         * this returns normally; if it throws, the stream is left open so that
+         * the response isn't ended as though it were complete.
+         * @param out the response's output stream
+         * @throws IOException if the body can't be written, e.g. because the
+         * client went away
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
 }
@@ -0,0 +1,79 @@
+package com.martiansoftware.boom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses http Range headers (RFC 7233) into sorted, coalesced byte ranges.
+ *
+ * @author mlamb
+ */
+class ByteRanges {
+
+    // requests for more ranges than this are more likely abuse than anything
+    // useful, so the Range header is ignored and the whole body is sent
+    private static final int MAX_RANGES = 16;
+
+    private ByteRanges() {}
+
+    /**
+     * Parses a Range header value against a body of known length.
+     *
+     * @param header the Range header value
+     * @param length the length of the full body
+     * @return null if the header should be ignored (missing, malformed, not
+     * a bytes range, or too many ranges); an empty list if no requested range
+     * is satisfiable; otherwise the satisfiable ranges as {first, last}
+     * inclusive byte offsets, sorted, with overlapping and adjacent ranges merged.
+     */
+    static List<long[]> parse(String header, long length) {
+        if (header == null) return null;
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        List<long[]> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            try {
+                String a = spec.substring(0, dash).trim(), b = spec.substring(dash + 1).trim();
+                if (a.isEmpty()) { // suffix range: last n bytes
+                    long n = Long.parseLong(b);
+                    if (n < 0) return null;
+                    if (n > 0 && length > 0) ranges.add(new long[] { Math.max(0, length - n), length - 1 });
+                } else {
+                    long first = Long.parseLong(a);
+                    long last = b.isEmpty() ? Long.MAX_VALUE : Long.parseLong(b);
+                    if (first < 0 || last < first) return null;
+                    if (first < length) ranges.add(new long[] { first, Math.min(last, length - 1) });
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return coalesce(ranges);
+    }
+
+    private static List<long[]> coalesce(List<long[]> ranges) {
+        if (ranges.size() < 2) return ranges;
+        Collections.sort(ranges, (r1, r2) -> Long.compare(r1[0], r2[0]));
+        List<long[]> result = new ArrayList<>(ranges.size());
+        long[] current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); ++i) {
+            long[] r = ranges.get(i);
+            if (r[0] <= current[1] + 1) {
+                current[1] = Math.max(current[1], r[1]);
+            } else {
+                result.add(current);
+                current = r;
+            }
+        }
+        result.add(current);
+        return result;
+    }
+}
@@ -0,0 +1,189 @@
+package com.martiansoftware.boom;
+
+import com.martiansoftware.dumbtemplates.DumbTemplate;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the rendered output of a template, for templates that render the same
+ * thing most of the time (navigation, footers, public pages, ...).  Output is
+ * cached separately for each combination of values of the context keys the
+ * template is declared to depend on.  Context values used as keys must have
+ * sensible equals() and hashCode() methods.
+ *
+ * The cache holds a bounded number of entries, discarding the least recently
+ * used first, and entries may also expire after a set time.  Call
+ * invalidate() when the data behind a template changes.
+ *
+ * Use render() for fragments to be placed in the template context of a larger
+ * page, and response() for whole pages.  A CachedTemplate is thread safe, and
+ * is meant to be created once and reused.
+ *
+ * @author mlamb
+ */
+public class CachedTemplate {
+
+    private final String _templateName;
+    private final String[] _keys;
+    private volatile long _ttlNanos = 0; // never expire
+    private volatile int _maxEntries = 256;
+    
+    // guarded by this; in access order for LRU eviction
+    private final Map<List<Object>, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long _generation = 0; // guarded by this; bumped by invalidate()
+    
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+
+    /**
+     * Creates a new CachedTemplate
+     * @param templateName the name of the template, as passed to Boom.template()
+     * @param contextKeys the template context keys whose values the output
+     * depends upon
+     */
+    public CachedTemplate(String templateName, String... contextKeys) {
+        _templateName = templateName;
+        _keys = contextKeys.clone();
+    }
+    
+    /**
+     * Sets how long rendered output may be reused
+     * @param ttl how long output may be reused, or 0 for as long as it's cached
+     * @param unit the unit of ttl
+     * @return this CachedTemplate
+     */
+    public CachedTemplate ttl(long ttl, TimeUnit unit) { _ttlNanos = unit.toNanos(ttl); return this; }
+    
+    /**
+     * Sets the maximum number of rendered outputs to keep
+     * @param maxEntries the maximum number of rendered outputs to keep
+     * @return this CachedTemplate
+     */
+    public CachedTemplate maxEntries(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        synchronized(this) {
+            _maxEntries = maxEntries;
+            trim();
+        }
+        return this;
+    }
+    
+    /**
+     * Renders the template with the current template context, or reuses
+     * output previously rendered with the same key values
+     * @return the rendered output
+     */
+    public String render() { return render(Boom.context()); }
+    
+    /**
+     * Renders the template with the specified context, or reuses output
+     * previously rendered with the same key values
+     * @param context the template context
+     * @return the rendered output
+     */
+    public String render(Map<String, Object> context) { return entry(context).text; }
+    
+    /**
+     * Returns a response for a whole page rendered with the current template
+     * context.  The encoded page is cached too, so a cached page is sent
+     * without rendering or encoding anything.
+     * @return a BoomResponse containing the rendered page
+     */
+    public BoomResponse response() { return new BoomResponse(entry(Boom.context()).utf8()); }
+    
+    /**
+     * Discards all cached output
+     */
+    public synchronized void invalidate() {
+        _entries.clear();
+        ++_generation;
+    }
+    
+    /**
+     * Discards the output cached for one combination of key values
+     * @param keyValues the values of the context keys, in the order they were
+     * passed to the constructor
+     */
+    public synchronized void invalidate(Object... keyValues) {
+        _entries.remove(Arrays.asList(keyValues));
+        ++_generation;
+    }
+
+    public long hits() { return _hits.sum(); }
+    public long misses() { return _misses.sum(); }
+    public synchronized int size() { return _entries.size(); }
+    
+    private Entry entry(Map<String, Object> context) {
+        Object[] values = new Object[_keys.length];
+        for (int i = 0; i < _keys.length; ++i) values[i] = context.get(_keys[i]);
+        List<Object> key = Arrays.asList(values);
+        
+        long generation;
+        synchronized(this) {
+            Entry e = _entries.get(key);
+            if (e != null && !e.expired()) {
+                _hits.increment();
+                return e;
+            }
+            generation = _generation;
+        }
+        
+        // render without holding the lock; concurrent misses may render twice
+        _misses.increment();
+        DumbTemplate t = Boom.template(_templateName);
+        if (t == null) throw new IllegalStateException("Template not found: " + _templateName);
+        long ttl = _ttlNanos;
+        Entry e = new Entry(t.render(context), (ttl == 0) ? 0 : System.nanoTime() + ttl);
+        synchronized(this) {
+            // output rendered before an invalidate() may already be stale
+            if (generation == _generation) {
+                _entries.put(key, e);
+                trim();
+            }
+        }
+        return e;
+    }
+    
+    private void trim() {
+        Iterator<Entry> it = _entries.values().iterator();
+        while (_entries.size() > _maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+    
+    @Override public String toString() {
+        return "CachedTemplate[" + _templateName + " by " + Arrays.toString(_keys) + "]";
+    }
+    
+    private static class Entry {
+        final String text;
+        final long expires; // System.nanoTime(), or 0 for never
+        private volatile ByteBuffer _utf8;
+        
+        Entry(String text, long expires) {
+            this.text = text;
+            this.expires = expires;
+        }
+        
+        boolean expired() {
+            return expires != 0 && System.nanoTime() - expires > 0;
+        }
+        
+        ByteBuffer utf8() {
+            ByteBuffer b = _utf8;
+            if (b == null) {
+                b = ByteBuffer.wrap((text == null ? "" : text).getBytes(StandardCharsets.UTF_8));
+                _utf8 = b;
+            }
+            return b;
+        }
+    }
+}
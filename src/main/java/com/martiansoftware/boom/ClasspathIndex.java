@@ -0,0 +1,194 @@
+package com.martiansoftware.boom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable index of the resources under a classpath directory, built by
+ * scanning exploded directories and jars once so that lookups - including
+ * lookups of things that aren't there - never touch the classloader.
+ *
+ * Where more than one classpath element provides the same resource, the
+ * first one the classloader reports wins, just as with getResource().  Jars
+ * without directory entries are found through the classloader's URLs (if it
+ * has any) and java.class.path.
+ *
+ * @author mlamb
+ */
+class ClasspathIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ClasspathIndex.class);
+
+    private final Map<String, Entry> _entries;
+
+    private ClasspathIndex(Map<String, Entry> entries) {
+        _entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Looks up a resource
+     * @param path the absolute classpath path of the resource, e.g. "/static-content/app.js"
+     * @return the resource, or null if there is no such resource (directories aren't indexed)
+     */
+    Entry get(String path) {
+        return _entries.get(path);
+    }
+
+    /**
+     * Returns the absolute classpath paths of all indexed resources
+     */
+    Set<String> paths() {
+        return _entries.keySet();
+    }
+
+    int size() {
+        return _entries.size();
+    }
+
+    /**
+     * Scans the classpath for everything under a directory
+     * @param cl the classloader to scan
+     * @param root the absolute classpath path of the directory, e.g. "/static-content"
+     * @return the index, or null if some part of the classpath couldn't be
+     * scanned (e.g. an unfamiliar URL scheme), in which case callers should
+     * keep using the classloader
+     */
+    static ClasspathIndex scan(ClassLoader cl, String root) {
+        long start = System.currentTimeMillis();
+        String name = root.replaceAll("^/+|/+$", "");
+        Map<String, Entry> entries = new HashMap<>();
+        Set<File> jars = new HashSet<>();
+        try {
+            Enumeration<URL> urls = cl.getResources(name);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                if ("file".equals(url.getProtocol())) {
+                    scanDirectory(Paths.get(url.toURI()), "/" + name, entries);
+                } else if ("jar".equals(url.getProtocol())) {
+                    File jar = jarFileOf(url);
+                    if (jars.add(jar)) scanJar(jar, name + "/", entries);
+                } else {
+                    log.info("Not indexing {}: unsupported URL {}", root, url);
+                    return null;
+                }
+            }
+            
+            // jars built without directory entries don't show up above
+            List<File> elements = new ArrayList<>();
+            if (cl instanceof URLClassLoader) {
+                for (URL u : ((URLClassLoader) cl).getURLs()) {
+                    if ("file".equals(u.getProtocol())) elements.add(new File(u.toURI()));
+                }
+            }
+            for (String element : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                elements.add(new File(element));
+            }
+            for (File f : elements) {
+                File jar = f.getAbsoluteFile();
+                if (jar.getName().endsWith(".jar") && jar.isFile() && jars.add(jar)) scanJar(jar, name + "/", entries);
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            log.warn("Unable to index " + root + ": " + e.getMessage(), e);
+            return null;
+        }
+        log.info("Indexed {} resources under {} in {}ms", entries.size(), root, System.currentTimeMillis() - start);
+        return new ClasspathIndex(entries);
+    }
+
+    private static void scanDirectory(Path dir, String root, Map<String, Entry> entries) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> s = Files.walk(dir, FileVisitOption.FOLLOW_LINKS)) {
+            s.filter(Files::isRegularFile).forEach(p -> {
+                String rel = dir.relativize(p).toString().replace(File.separatorChar, '/');
+                entries.putIfAbsent(root + "/" + rel, new Entry(p.toFile()));
+            });
+        }
+    }
+
+    private static File jarFileOf(URL url) throws IOException, URISyntaxException {
+        URLConnection conn = url.openConnection();
+        if (!(conn instanceof JarURLConnection)) throw new IOException("Not a jar: " + url);
+        URL jarUrl = ((JarURLConnection) conn).getJarFileURL();
+        if (!"file".equals(jarUrl.getProtocol())) throw new IOException("Not a local jar: " + url);
+        return new File(jarUrl.toURI()).getAbsoluteFile();
+    }
+    
+    private static void scanJar(File f, String prefix, Map<String, Entry> entries) throws IOException {
+        // closed once indexed.  entries are read through jar: URLs, as the
+        // classloader's getResourceAsStream() would, so they share the jvm's
+        // cache of open jars rather than the index holding its own.
+        String base = "jar:" + f.toURI() + "!/";
+        try (JarFile jar = new JarFile(f)) {
+            Enumeration<JarEntry> jes = jar.entries();
+            while (jes.hasMoreElements()) {
+                JarEntry je = jes.nextElement();
+                if (je.isDirectory() || !je.getName().startsWith(prefix)) continue;
+                String path = "/" + je.getName();
+                if (!entries.containsKey(path)) entries.put(path, new Entry(new URL(base + encode(je.getName())), je));
+            }
+        }
+    }
+
+    private static String encode(String entryName) throws IOException {
+        try {
+            return new URI(null, null, entryName, null).getRawPath();
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to index jar entry " + entryName, e);
+        }
+    }
+
+    /**
+     * An indexed resource: a file in an exploded directory or an entry in a jar
+     */
+    static class Entry {
+        final File file;
+        final long size;
+        final long time;
+        private final URL _url;
+
+        private Entry(File f) {
+            file = f;
+            size = f.length();
+            time = f.lastModified();
+            _url = null;
+        }
+
+        private Entry(URL url, JarEntry je) {
+            file = null;
+            size = je.getSize();
+            time = je.getTime();
+            _url = url;
+        }
+
+        /**
+         * Opens a jar entry for reading (files should be read via the file field)
+         */
+        InputStream open() throws IOException {
+            return _url.openStream();
+        }
+    }
+}
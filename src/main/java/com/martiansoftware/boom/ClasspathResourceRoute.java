@@ -1,16 +1,27 @@
 package com.martiansoftware.boom;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.net.JarURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.jar.JarEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Serves static content from the classpath.  The content under an absolute
+ * prefix (such as "/static-content") is indexed when the route is created, so
+ * looking up a path - whether or not it exists - doesn't involve the
+ * classloader.  Assets up to a configurable size are read once and then served
+ * from an in-memory AssetCache, along with their gzipped variants.
  *
  * @author mlamb
  */
@@ -18,7 +29,14 @@ public class ClasspathResourceRoute extends ResourceRoute {
 
     private static final Logger log = LoggerFactory.getLogger(ClasspathResourceRoute.class);
     
+    // generous enough for a typical app's css, js, and images; larger files
+    // are streamed as they always have been
+    private static final long DEFAULT_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final long DEFAULT_CACHE_ENTRY_BYTES = 1024 * 1024;
+    
     private final Path _prefix;
+    private final ClasspathIndex _index; // null if the classloader has to be asked every time
+    private volatile AssetCache _cache = new AssetCache(DEFAULT_CACHE_BYTES, DEFAULT_CACHE_ENTRY_BYTES);
     
     public ClasspathResourceRoute() {
         this(null, null);
@@ -35,13 +53,104 @@ public class ClasspathResourceRoute extends ResourceRoute {
     public ClasspathResourceRoute(String cpPrefix, ResourceRoute next) {
         super(next);
         _prefix = Paths.get(cpPrefix);
+        String root = _prefix.toString().replaceAll("\\\\", "/");
+        _index = root.startsWith("/") ? ClasspathIndex.scan(ClasspathResourceRoute.class.getClassLoader(), root) : null;
+    }
+    
+    /**
+     * Replaces this route's asset cache with an empty one of the specified size
+     * @param maxBytes the maximum total size of cached assets (0 disables caching)
+     * @param maxEntryBytes the maximum size of any one cached asset
+     * @return this ClasspathResourceRoute
+     */
+    public ClasspathResourceRoute cache(long maxBytes, long maxEntryBytes) {
+        _cache = new AssetCache(maxBytes, maxEntryBytes);
+        return this;
     }
     
-    @Override InputStream getInputStream(String path) {
-        if (_prefix != null) path = _prefix.resolve(path.replaceAll("^/*", "")).toString();
-        path = path.replaceAll("\\\\", "/"); // needed on Windows
+    /**
+     * Returns this route's asset cache, e.g. for monitoring its hit rate
+     * @return this route's asset cache
+     */
+    public AssetCache cache() { return _cache; }
+    
+    @Override BoomResponse getResponse(String path, boolean gzip) {
+        // classpath content doesn't change while we're running, so the
+        // requested path is as good a key as the resolved one, once
+        // normalized so that e.g. "/a//b" and "/a/./b" share an entry
+        String key = Paths.get(path).normalize().toString().replaceAll("\\\\", "/");
+        AssetCache cache = _cache;
+        AssetCache.Asset a = cache.get(key);
+        return (a != null) ? a.toResponse(gzip) : find(key, gzip, cache);
+    }
+    
+    private BoomResponse find(String key, boolean gzip, AssetCache cache) {
+        Path p = (_prefix == null) ? Paths.get(key) : _prefix.resolve(key.replaceAll("^/*", ""));
+        String path = p.toString().replaceAll("\\\\", "/"); // needed on Windows
         log.debug("Looking for [{}]", path);
         
+        Resource r = null, pre = null;
+        try {
+            r = locate(path);
+            if (r == null) return null;
+            String mimeType = MimeType.forPath(p).toString();
+            boolean compressible = compressible(mimeType);
+            pre = compressible ? locate(path + ".gz") : null;
+            
+            // the cache counts the gzipped variant too, so room for it is
+            // reserved before anything is read; otherwise an asset that fits
+            // on its own would be read, compressed, and refused every time
+            long gzLength = 0;
+            if (compressible && r.size >= MIN_COMPRESS_BYTES) {
+                gzLength = (pre != null && pre.size >= 0) ? pre.size : maxGzipLength(r.size);
+            }
+            
+            if (r.size >= 0 && cache.accepts(r.size + gzLength)) {
+                byte[] b = r.readAll();
+                byte[] gz = null;
+                if (gzLength > 0) {
+                    if (pre != null && pre.size >= 0) {
+                        gz = pre.readAll();
+                        pre = null;
+                    } else {
+                        gz = gzip(b);
+                    }
+                }
+                if (pre != null) pre.close();
+                return cache.put(key, new AssetCache.Asset(b, mimeType, r.time, null, gz)).toResponse(gzip);
+            }
+            
+            // too big to cache: stream it, or its precompressed sibling if there is one
+            BoomResponse result;
+            if (gzip && pre != null) {
+                r.close();
+                result = pre.toResponse().encoding(GZIP);
+            } else {
+                if (pre != null) pre.close();
+                result = r.toResponse();
+            }
+            result.as(mimeType);
+            return compressible ? result.vary(VARY_ENCODING) : result;
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            if (r != null) r.close();
+            if (pre != null) pre.close();
+            return null;
+        }
+    }
+    
+    /**
+     * Finds a classpath resource
+     * @param path the full classpath path of the resource
+     * @return the resource, or null if there is no such (non-directory) resource
+     */
+    private Resource locate(String path) throws IOException {
+        if (_index != null) {
+            ClasspathIndex.Entry e = _index.get(path);
+            if (e == null) return null;
+            return (e.file != null) ? new Resource(e.file) : new Resource(e.open(), e.size, e.time);
+        }
+        
         URL url = this.getClass().getResource(path);
         if (url == null) return null;
         if ("file".equals(url.getProtocol())) {
@@ -52,13 +161,78 @@ public class ClasspathResourceRoute extends ResourceRoute {
                     log.debug("Not resolving path that points to a directory: {}", path);
                     return null;
                 }
+                return new Resource(f);
             } catch (URISyntaxException e) {
                 log.error(e.getMessage(), e);
             }
         }
 
-        FakeInputStreamDetector result = new FakeInputStreamDetector(this.getClass().getResourceAsStream(path));
-        return result.isReadable() ? result : null;
+        FakeInputStreamDetector in = new FakeInputStreamDetector(this.getClass().getResourceAsStream(path));
+        if (!in.isReadable()) return null;
+        
+        // jar entries know their size and time without being read
+        long size = -1, time = -1;
+        try {
+            URLConnection conn = url.openConnection();
+            if (conn instanceof JarURLConnection) {
+                JarEntry e = ((JarURLConnection) conn).getJarEntry();
+                if (e != null && e.getSize() >= 0 && e.getTime() >= 0) {
+                    size = e.getSize();
+                    time = e.getTime();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Unable to read metadata for {}: {}", path, e.getMessage());
+        }
+        return new Resource(in, size, time);
+    }
+    
+    /**
+     * A located classpath resource: either a file or an already-open stream,
+     * along with its size and last-modified time if known
+     */
+    private static class Resource {
+        final File file;
+        final InputStream in;
+        final long size;
+        final long time;
+        
+        Resource(File f) {
+            file = f;
+            in = null;
+            size = f.length();
+            time = f.lastModified();
+        }
+        
+        Resource(InputStream in, long size, long time) {
+            file = null;
+            this.in = in;
+            this.size = size;
+            this.time = time;
+        }
+        
+        byte[] readAll() throws IOException {
+            if (file != null) return Files.readAllBytes(file.toPath());
+            try (InputStream cin = in) {
+                byte[] b = new byte[(int) size];
+                new DataInputStream(cin).readFully(b);
+                return b;
+            }
+        }
+        
+        BoomResponse toResponse() throws IOException {
+            if (file != null) return new BoomResponse(file);
+            BoomResponse result = new BoomResponse(in);
+            if (size >= 0) result.length(size).lastModified(time).etag(BoomResponse.etagFor(size, time));
+            return result;
+        }
+        
+        void close() {
+            if (in == null) return;
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+        }
     }
     
     class FakeInputStreamDetector extends PushbackInputStream {
@@ -14,5 +14,6 @@ class Constants {
     static final String BOOM_ROOT = "boom_root";
     
     static final String DEBUG_ENV_OR_PROPERTY = "BOOM_DEBUG";
+    static final String TEMPLATES_ENV_OR_PROPERTY = "BOOM_TEMPLATES";
     
 }
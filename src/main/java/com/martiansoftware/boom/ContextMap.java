@@ -0,0 +1,197 @@
+package com.martiansoftware.boom;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Small open-addressing (linear probing) map used as the default template
+ * context.  Keys and values live in two flat arrays, so put() and get() don't
+ * allocate an entry per mapping the way a HashMap does, and clear() leaves the
+ * arrays in place so the same map can be recycled for the next request on the
+ * same thread.  Null keys are not supported; null values are.
+ *
+ * Not thread safe, same as the HashMap it replaces.
+ *
+ * @author mlamb
+ */
+class ContextMap extends AbstractMap<String, Object> {
+
+    // comfortably holds a typical template context (a dozen or so keys) without resizing
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private String[] _keys;
+    private Object[] _values;
+    private int _size = 0;
+
+    ContextMap() { this(DEFAULT_CAPACITY); }
+
+    ContextMap(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(4, capacity - 1)) << 1;
+        _keys = new String[cap];
+        _values = new Object[cap];
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) return -1;
+        int mask = _keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            String k = _keys[i];
+            if (k == null) return -1;
+            if (k.equals(key)) return i;
+        }
+    }
+
+    @Override public int size() { return _size; }
+
+    @Override public boolean containsKey(Object key) { return indexOf(key) >= 0; }
+
+    @Override public Object get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : _values[i];
+    }
+
+    @Override public Object put(String key, Object value) {
+        if (key == null) throw new NullPointerException("template context keys may not be null");
+        if ((_size + 1) * 4 > _keys.length * 3) resize(_keys.length << 1);
+        int mask = _keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            String k = _keys[i];
+            if (k == null) {
+                _keys[i] = key;
+                _values[i] = value;
+                ++_size;
+                return null;
+            }
+            if (k.equals(key)) {
+                Object old = _values[i];
+                _values[i] = value;
+                return old;
+            }
+        }
+    }
+
+    @Override public Object remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) return null;
+        Object old = _values[i];
+        removeAt(i, null);
+        return old;
+    }
+
+    // backward-shift deletion keeps probe sequences intact without tombstones.
+    // an iterator removing at i is told about entries that wrap around from
+    // below i (which it hasn't visited yet) to i or above (which it has).
+    private void removeAt(int i, EntryIterator it) {
+        int mask = _keys.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; _keys[j] != null; j = (j + 1) & mask) {
+            int home = hash(_keys[j]) & mask;
+            // move j into the hole unless its home slot lies cyclically in (hole, j]
+            boolean stays = (hole <= j) ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (!stays) {
+                if (it != null && j < i && hole >= i) it.wrapped(_keys[j]);
+                _keys[hole] = _keys[j];
+                _values[hole] = _values[j];
+                hole = j;
+            }
+        }
+        _keys[hole] = null;
+        _values[hole] = null;
+        --_size;
+    }
+
+    @Override public void clear() {
+        if (_size == 0) return;
+        Arrays.fill(_keys, null);
+        Arrays.fill(_values, null);
+        _size = 0;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = _keys;
+        Object[] oldValues = _values;
+        _keys = new String[capacity];
+        _values = new Object[capacity];
+        _size = 0;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != null) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    @Override public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override public int size() { return _size; }
+            @Override public void clear() { ContextMap.this.clear(); }
+            @Override public Iterator<Map.Entry<String, Object>> iterator() { return new EntryIterator(); }
+        };
+    }
+
+    /**
+     * Iterates from the top of the table down, so that the backward shifts
+     * done by remove() only move entries the iterator has already visited,
+     * except for ones that wrap around from the bottom of the table; those
+     * are remembered and returned at the end.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int _next = _keys.length - 1; // where to look for the next entry; may be empty
+        private int _last = -1;
+        private String _lastKey = null;
+        private List<String> _wrapped = null;
+        private int _wrappedNext = 0;
+
+        private int advance(int from) {
+            while (from >= 0 && _keys[from] == null) --from;
+            return from;
+        }
+
+        void wrapped(String key) {
+            if (_wrapped == null) _wrapped = new ArrayList<>(2);
+            _wrapped.add(key);
+        }
+
+        @Override public boolean hasNext() {
+            // advanced lazily, since remove() may empty the slot found last time
+            _next = advance(_next);
+            return _next >= 0 || (_wrapped != null && _wrappedNext < _wrapped.size());
+        }
+
+        @Override public Map.Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (_next >= 0) {
+                _last = _next;
+                _next = _last - 1;
+                _lastKey = _keys[_last];
+            } else {
+                _last = -1;
+                _lastKey = _wrapped.get(_wrappedNext++);
+            }
+            final String key = _lastKey;
+            return new AbstractMap.SimpleEntry<String, Object>(key, get(key)) {
+                @Override public Object setValue(Object value) {
+                    int i = indexOf(key);
+                    if (i < 0) throw new IllegalStateException("entry has been removed");
+                    _values[i] = value;
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override public void remove() {
+            if (_lastKey == null) throw new IllegalStateException();
+            if (_last >= 0) removeAt(_last, this); else ContextMap.this.remove(_lastKey);
+            _lastKey = null;
+        }
+    }
+}
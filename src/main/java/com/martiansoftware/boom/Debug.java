@@ -84,6 +84,7 @@ class Debug {
         context.put("req.ip", req.ip());
         context.put("req.port", req.port());
         context.put("now", new java.util.Date());
+        context.put("boom.contexts", BoomContext.stats());
         return _templates.get("index.html").render(context);
     }
     
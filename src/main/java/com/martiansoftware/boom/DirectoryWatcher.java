@@ -0,0 +1,134 @@
+package com.martiansoftware.boom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a directory tree for changes on a daemon thread.  Every batch of
+ * changes bumps a version number, so callers can cheaply tell whether anything
+ * has changed since they last looked, and a listener (if any) is told which
+ * paths changed.
+ *
+ * @author mlamb
+ */
+class DirectoryWatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    private final Path _root;
+    private final WatchService _ws;
+    private final Consumer<Path> _listener;
+    private final Map<WatchKey, Path> _dirs = new ConcurrentHashMap<>();
+    private final AtomicLong _version = new AtomicLong();
+
+    private DirectoryWatcher(Path root, Consumer<Path> listener) throws IOException {
+        _root = root;
+        _listener = listener;
+        _ws = root.getFileSystem().newWatchService();
+        registerAll(root);
+        Thread t = new Thread(this::run, "boom-watch-" + root.getFileName());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Starts watching a directory tree
+     * @param root the directory to watch
+     * @param listener called with each changed path (for a new directory, its
+     * contents should be considered changed too), or with null if changes may
+     * have been missed and everything should be considered changed; may be null
+     * @return the watcher, or null if the directory can't be watched
+     */
+    static DirectoryWatcher watch(Path root, Consumer<Path> listener) {
+        if (!Files.isDirectory(root)) return null;
+        try {
+            return new DirectoryWatcher(root.toAbsolutePath().normalize(), listener);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Unable to watch {}: {}", root, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns a number that changes whenever anything under the root changes
+     * @return the current version of the directory tree
+     */
+    long version() {
+        return _version.get();
+    }
+
+    Path root() {
+        return _root;
+    }
+
+    private void registerAll(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = d.register(_ws, StandardWatchEventKinds.ENTRY_CREATE,
+                                                StandardWatchEventKinds.ENTRY_DELETE,
+                                                StandardWatchEventKinds.ENTRY_MODIFY);
+                _dirs.put(key, d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = _ws.take();
+                Path dir = _dirs.get(key);
+                _version.incrementAndGet();
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (e.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        changed(null);
+                        continue;
+                    }
+                    Path p = dir.resolve((Path) e.context());
+                    if (e.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(p)) {
+                        try {
+                            registerAll(p);
+                            // anything created in it before it was registered went unseen
+                            _version.incrementAndGet();
+                        } catch (IOException ex) {
+                            log.warn("Unable to watch {}: {}", p, ex.getMessage());
+                        }
+                    }
+                    changed(p);
+                }
+                if (!key.reset()) _dirs.remove(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Stopped watching {}", _root);
+        }
+    }
+
+    private void changed(Path p) {
+        if (_listener == null) return;
+        try {
+            _listener.accept(p);
+        } catch (RuntimeException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    @Override public void close() throws IOException {
+        _ws.close();
+    }
+}
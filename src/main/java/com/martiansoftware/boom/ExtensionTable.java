@@ -0,0 +1,85 @@
+package com.martiansoftware.boom;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, case-insensitive (for ASCII) hash table from file extension to
+ * MimeType.  Lookups work directly on a region of a String, so finding the
+ * type for a filename doesn't allocate a substring, upper-case copy, or
+ * exception.
+ *
+ * @author mlamb
+ */
+class ExtensionTable {
+
+    private final String[] _keys; // lower case
+    private final MimeType[] _types;
+    private final Map<String, MimeType> _map;
+
+    ExtensionTable(Map<String, MimeType> extensions) {
+        int cap = Integer.highestOneBit(Math.max(4, extensions.size() * 2 - 1)) << 1; // at most half full
+        _keys = new String[cap];
+        _types = new MimeType[cap];
+        _map = new HashMap<>();
+        int mask = cap - 1;
+        for (Map.Entry<String, MimeType> e : extensions.entrySet()) {
+            String key = lower(e.getKey());
+            int i = hash(key, 0, key.length()) & mask;
+            while (_keys[i] != null && !_keys[i].equals(key)) i = (i + 1) & mask;
+            _keys[i] = key;
+            _types[i] = e.getValue();
+            _map.put(key, e.getValue());
+        }
+    }
+
+    /**
+     * Returns a new table with an extension added or replaced
+     */
+    ExtensionTable with(String extension, MimeType type) {
+        Map<String, MimeType> m = new HashMap<>(_map);
+        m.put(lower(extension), type);
+        return new ExtensionTable(m);
+    }
+
+    /**
+     * Looks up the extension found in s from start (inclusive) to end (exclusive)
+     * @return the MimeType, or null if the extension is unknown
+     */
+    MimeType get(String s, int start, int end) {
+        int mask = _keys.length - 1;
+        for (int i = hash(s, start, end) & mask; ; i = (i + 1) & mask) {
+            String k = _keys[i];
+            if (k == null) return null;
+            if (matches(k, s, start, end)) return _types[i];
+        }
+    }
+
+    MimeType get(String extension) {
+        return get(extension, 0, extension.length());
+    }
+
+    private static boolean matches(String key, String s, int start, int end) {
+        if (key.length() != end - start) return false;
+        for (int i = 0; i < key.length(); ++i) {
+            if (key.charAt(i) != lower(s.charAt(start + i))) return false;
+        }
+        return true;
+    }
+
+    private static int hash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; ++i) h = 31 * h + lower(s.charAt(i));
+        return h ^ (h >>> 16);
+    }
+
+    private static char lower(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String lower(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++i) sb.append(lower(s.charAt(i)));
+        return sb.toString();
+    }
+}
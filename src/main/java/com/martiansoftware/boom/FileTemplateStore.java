@@ -0,0 +1,245 @@
+package com.martiansoftware.boom;
+
+import com.martiansoftware.dumbtemplates.DumbTemplate;
+import com.martiansoftware.dumbtemplates.DumbTemplateStore;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads templates from a directory, keeping them parsed until they change, so
+ * templates can be updated in production without a restart and without any
+ * per-request file I/O.  Changes are noticed by watching the directory; if it
+ * can't be watched, a template's modification time is checked instead, at
+ * most once a second.  Templates that are missing or fail to parse are
+ * remembered the same way.
+ *
+ * Included templates are looked up through Boom's template store (so they may
+ * come from the defaults too), and a template is parsed again when anything
+ * it includes changes.
+ *
+ * @author mlamb
+ */
+class FileTemplateStore extends DumbTemplateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(FileTemplateStore.class);
+
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1); // when unwatched
+    private static final int MAX_ENTRIES = 10000; // just starts over; there shouldn't be nearly this many
+    private static final int MAX_INCLUDE_DEPTH = 16; // deeper (or circular) includes are always checked
+
+    private final Path _root;
+    private final DirectoryWatcher _watcher; // null if the directory can't be watched
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<>(); // keyed by "/" + path relative to _root
+    private final Map<String, DumbTemplate> _added = new ConcurrentHashMap<>();
+    private final AtomicLong _loads = new AtomicLong();
+    private volatile DumbTemplateStore _includes = this;
+
+    FileTemplateStore(Path root) {
+        _root = root.toAbsolutePath().normalize();
+        _watcher = DirectoryWatcher.watch(_root, this::changed);
+        if (_watcher == null) log.warn("Unable to watch {}; checking templates for changes as they're used", _root);
+        log.info("Loading templates from {}", _root);
+    }
+
+    /**
+     * Sets the store in which included templates are looked up
+     */
+    void includesFrom(DumbTemplateStore includes) {
+        _includes = includes;
+        _entries.clear();
+    }
+
+    @Override public DumbTemplateStore add(String templateName, String templateDef) {
+        try {
+            _added.put(key(templateName), Templates.parse(templateName, templateDef, _includes, null));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        return this;
+    }
+
+    @Override public DumbTemplateStore add(String templateName, Reader templateDef) throws IOException {
+        StringWriter sw = new StringWriter();
+        char[] buf = new char[8192];
+        int n;
+        while ((n = templateDef.read(buf)) > 0) sw.write(buf, 0, n);
+        _added.put(key(templateName), Templates.parse(templateName, sw.toString(), _includes, null));
+        return this;
+    }
+
+    @Override public DumbTemplate get(String templateName) {
+        String key = key(templateName);
+        DumbTemplate added = _added.get(key);
+        if (added != null) return added;
+        Entry e = _entries.get(key);
+        return (e != null && current(e, 0)) ? e.template : load(key).template;
+    }
+
+    /**
+     * Returns a number that changes whenever a template in the directory might
+     * have changed, or -1 if that can't be tracked (if it isn't watched)
+     * @return the version of the directory's templates
+     */
+    long version() {
+        return (_watcher == null) ? -1 : _watcher.version();
+    }
+
+    /**
+     * Parses every template under the directory now, in parallel
+     * @param failures receives the paths of templates that can't be loaded
+     */
+    void preload(List<String> failures) {
+        List<Path> files;
+        try (Stream<Path> s = Files.walk(_root, FileVisitOption.FOLLOW_LINKS)) {
+            files = s.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Unable to find templates under {}: {}", _root, e.getMessage());
+            return;
+        }
+        files.parallelStream().forEach(p -> {
+            if (load(key(p)).template == null) {
+                synchronized(failures) { failures.add(p.toString()); }
+            }
+        });
+        log.debug("Parsed {} templates under {}", files.size(), _root);
+    }
+
+    // called by the watcher
+    private void changed(Path p) {
+        if (p == null) {
+            _entries.clear();
+            return;
+        }
+        String changed = key(p);
+        String under = changed + "/";
+        Set<String> gone = new HashSet<>();
+        gone.add(changed);
+        // then whatever includes what's gone, and whatever includes that...
+        for (boolean more = true; more; ) {
+            more = false;
+            for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext(); ) {
+                Entry e = it.next();
+                if (e.key.equals(changed) || e.key.startsWith(under) || e.includes(gone, under)) {
+                    it.remove();
+                    more |= gone.add(e.key);
+                }
+            }
+        }
+    }
+
+    private boolean current(Entry e, int depth) {
+        if (_watcher != null) return true; // changed entries (and their includers) are removed by the watcher
+        if (depth > MAX_INCLUDE_DEPTH) return false;
+        long now = System.nanoTime();
+        if (now - e.checkedAt < CHECK_INTERVAL_NANOS) return true;
+        Path p = pathOf(e.key);
+        if (p == null || modifiedTime(p) != e.modified) return false;
+        for (String name : e.included) {
+            if (_added.containsKey(key(name))) continue;
+            Entry inc = _entries.get(key(name));
+            if (inc == null || inc.seq > e.seq || !current(inc, depth + 1)) return false;
+        }
+        e.checkedAt = now;
+        return true;
+    }
+
+    private Entry load(String key) {
+        long version = (_watcher == null) ? 0 : _watcher.version();
+        Path p = pathOf(key);
+        long modified = (p == null) ? -1 : modifiedTime(p);
+        long seq = _loads.incrementAndGet();
+        Set<String> included = ConcurrentHashMap.newKeySet();
+        DumbTemplate t = null;
+        if (modified >= 0) {
+            try {
+                t = Templates.parse(key, new String(Files.readAllBytes(p), StandardCharsets.UTF_8), _includes, included);
+            } catch (IOException | RuntimeException ex) {
+                log.error("Unable to load template " + p + ": " + ex.getMessage(), ex);
+            }
+        }
+        Entry e = new Entry(key, t, modified, seq, included);
+        if (_entries.size() >= MAX_ENTRIES) _entries.clear();
+        _entries.put(key, e);
+        // a change while loading may have been handled before the put
+        if (_watcher != null && _watcher.version() != version) _entries.remove(key, e);
+        return e;
+    }
+
+    // null if the name is outside of the directory
+    private Path pathOf(String key) {
+        Path p = _root.resolve(key.substring(1)).normalize();
+        return p.startsWith(_root) ? p : null;
+    }
+
+    // -1 if there's no such file
+    private static long modifiedTime(Path p) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs.lastModifiedTime().toMillis() : -1;
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (IOException e) {
+            log.warn("Unable to read {}: {}", p, e.getMessage());
+            return -1;
+        }
+    }
+
+    private String key(Path p) {
+        return "/" + _root.relativize(p).toString().replace(File.separatorChar, '/');
+    }
+
+    // templates are asked for with or without the leading slash
+    private static String key(String templateName) {
+        return templateName.startsWith("/") ? templateName : "/" + templateName;
+    }
+
+    @Override public String toString() {
+        return "FileTemplateStore[" + _root + "]";
+    }
+
+    private static class Entry {
+        final String key;
+        final DumbTemplate template; // null if missing or broken
+        final long modified; // -1 if missing
+        final long seq; // later loads have higher numbers
+        final Set<String> included; // names of the templates it has looked up
+        volatile long checkedAt = System.nanoTime();
+
+        Entry(String key, DumbTemplate template, long modified, long seq, Set<String> included) {
+            this.key = key;
+            this.template = template;
+            this.modified = modified;
+            this.seq = seq;
+            this.included = included;
+        }
+
+        boolean includes(Set<String> keys, String under) {
+            for (String name : included) {
+                String k = key(name);
+                if (keys.contains(k) || k.startsWith(under)) return true;
+            }
+            return false;
+        }
+    }
+}
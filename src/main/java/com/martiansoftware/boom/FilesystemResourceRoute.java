@@ -1,15 +1,27 @@
 package com.martiansoftware.boom;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Serves static content from the filesystem.  By default files are read on
+ * every request (so changes show up immediately), apart from gzipped variants,
+ * which are compressed once per version of a file and cached.  In cached mode
+ * (see cached()), files are held in memory or memory-mapped instead, and the
+ * directory is watched for changes, so that cached files and paths found to
+ * be missing can be remembered until something changes.
  *
  * @author mlamb
  */
@@ -17,7 +29,17 @@ public class FilesystemResourceRoute extends ResourceRoute {
     
     private static final Logger log = LoggerFactory.getLogger(FilesystemResourceRoute.class);
     
+    private static final long DEFAULT_GZIP_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final long DEFAULT_GZIP_ENTRY_BYTES = 4 * 1024 * 1024;
+    private static final long DEFAULT_CACHE_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_CACHE_ENTRY_BYTES = 256 * 1024;
+    private static final int DEFAULT_CACHE_MAPPED_FILES = 256;
+    
     private final Path _prefix;
+    private volatile DirectoryWatcher _watcher = null; // only in cached mode
+    private volatile AssetCache _cache = null; // only in cached mode; set after _watcher
+    private final Map<String, Long> _missing = new ConcurrentHashMap<>(); // as in ResourceRoute
+    private volatile AssetCache _gzipCache = new AssetCache(DEFAULT_GZIP_CACHE_BYTES, DEFAULT_GZIP_ENTRY_BYTES);
     
     public FilesystemResourceRoute() { this(null, null); }
     public FilesystemResourceRoute(String prefix) { this(prefix, null); }
@@ -27,8 +49,203 @@ public class FilesystemResourceRoute extends ResourceRoute {
         super(next);
         _prefix = Paths.get(prefix);
     }
+    
+    // without a watcher there's no telling when a missing file shows up
+    @Override long version() {
+        DirectoryWatcher w = _watcher;
+        return (w == null) ? -1 : w.version();
+    }
 
-    @Override InputStream getInputStream(String path) {
+    /**
+     * Replaces the cache of gzipped variants with an empty one of the specified size
+     * @param maxBytes the maximum total size of cached gzipped variants (0 disables compression)
+     * @param maxEntryBytes the maximum size of any one gzipped variant (files that might compress to more are sent as-is)
+     * @return this FilesystemResourceRoute
+     */
+    public FilesystemResourceRoute gzipCache(long maxBytes, long maxEntryBytes) {
+        _gzipCache = new AssetCache(maxBytes, maxEntryBytes);
+        return this;
+    }
+    
+    /**
+     * Returns the cache of gzipped variants, e.g. for monitoring its hit rate
+     * @return the cache of gzipped variants
+     */
+    public AssetCache gzipCache() { return _gzipCache; }
+    
+    /**
+     * Switches to cached mode with default limits
+     * @return this FilesystemResourceRoute
+     * @see #cached(long, long, int)
+     */
+    public FilesystemResourceRoute cached() {
+        return cached(DEFAULT_CACHE_BYTES, DEFAULT_CACHE_ENTRY_BYTES, DEFAULT_CACHE_MAPPED_FILES);
+    }
+    
+    /**
+     * Switches to cached mode with the default limit on memory-mapped files
+     * @param maxBytes the maximum total size of files held in memory
+     * @param maxEntryBytes the maximum size of any one file held in memory
+     * @return this FilesystemResourceRoute
+     * @see #cached(long, long, int)
+     */
+    public FilesystemResourceRoute cached(long maxBytes, long maxEntryBytes) {
+        return cached(maxBytes, maxEntryBytes, DEFAULT_CACHE_MAPPED_FILES);
+    }
+    
+    /**
+     * Switches to cached mode, in which files (and their gzipped variants) up
+     * to maxEntryBytes are held in memory, larger files are memory-mapped,
+     * and what's missing is remembered, so that serving a file that hasn't
+     * changed doesn't touch the filesystem.  Changes are picked up by watching
+     * the directory.  Files should be replaced (e.g. by renaming a new file
+     * over the old one) rather than rewritten in place, since a memory-mapped
+     * file may be in the middle of being sent.
+     * 
+     * Mapped files don't count toward maxBytes; instead at most maxMappedFiles
+     * of them (counting pre-compressed variants) are kept mapped, least
+     * recently used first out.
+     * 
+     * If the directory can't be watched, this route stays uncached.  An
+     * uncached route doesn't watch the directory at all.
+     * 
+     * @param maxBytes the maximum total size of files held in memory
+     * @param maxEntryBytes the maximum size of any one file held in memory
+     * @param maxMappedFiles the maximum number of files kept memory-mapped
+     * @return this FilesystemResourceRoute
+     */
+    public synchronized FilesystemResourceRoute cached(long maxBytes, long maxEntryBytes, int maxMappedFiles) {
+        if (_watcher == null) _watcher = DirectoryWatcher.watch(_prefix, this::changed);
+        if (_watcher == null) {
+            log.warn("Unable to watch {}; not caching it", _prefix);
+        } else {
+            _cache = new AssetCache(maxBytes, maxEntryBytes, maxMappedFiles);
+        }
+        return this;
+    }
+    
+    /**
+     * Returns the cache used in cached mode, e.g. for monitoring its hit rate
+     * @return the cache, or null if not in cached mode
+     */
+    public AssetCache cache() { return _cache; }
+    
+    // called by the watcher; keys are absolute paths
+    private void changed(Path p) {
+        AssetCache cache = _cache;
+        if (cache == null) return;
+        if (p == null) {
+            cache.clear();
+            return;
+        }
+        String changed = p.toString();
+        String original = changed.endsWith(".gz") ? changed.substring(0, changed.length() - 3) : changed;
+        String under = changed + File.separator;
+        cache.removeIf(k -> k.equals(changed) || k.equals(original) || k.startsWith(under));
+    }
+    
+    @Override BoomResponse getResponse(String path, boolean gzip) {
+        AssetCache cache = _cache;
+        return (cache == null) ? uncached(path, gzip) : fromCache(path, gzip, cache);
+    }
+    
+    private BoomResponse fromCache(String path, boolean gzip, AssetCache cache) {
+        DirectoryWatcher watcher = _watcher;
+        int i = 0;
+        while (i < path.length() && path.charAt(i) == '/') ++i;
+        Path p = watcher.root().resolve(path.substring(i)).normalize();
+        String key = p.toString();
+        
+        AssetCache.Asset a = cache.get(key);
+        if (a != null) return a.toResponse(gzip);
+        
+        long version = watcher.version();
+        Long missingAt = _missing.get(key);
+        if (missingAt != null && missingAt == version) return null;
+        
+        try {
+            BasicFileAttributes attrs = attributesOf(p);
+            if (attrs != null && attrs.isRegularFile()) {
+                a = load(p, attrs, cache);
+                if (a == null) return uncached(path, gzip); // the cache wouldn't take it
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return null;
+        }
+        
+        if (a == null) {
+            if (_missing.size() >= MAX_MISSING) _missing.clear();
+            _missing.put(key, version);
+            return null;
+        }
+        cache.put(key, a);
+        // a change while loading may have been handled before the put
+        if (watcher.version() != version) cache.remove(key);
+        return a.toResponse(gzip);
+    }
+    
+    /**
+     * Loads a file, along with its gzipped variant, in a form the cache will
+     * take: held on the heap if the cache has room for both, or else mapped
+     * @return the asset, or null if the cache would refuse it either way
+     */
+    private AssetCache.Asset load(Path p, BasicFileAttributes attrs, AssetCache cache) throws IOException {
+        String mimeType = MimeType.forPath(p).toString();
+        long lm = attrs.lastModifiedTime().toMillis();
+        boolean compressible = compressible(mimeType);
+        
+        Path pre = p.resolveSibling(p.getFileName() + ".gz");
+        BasicFileAttributes preAttrs = compressible ? attributesOf(pre) : null;
+        if (preAttrs != null && (!preAttrs.isRegularFile() || preAttrs.lastModifiedTime().toMillis() < lm
+                                    || preAttrs.size() > Integer.MAX_VALUE)) {
+            preAttrs = null;
+        }
+        
+        // the cache counts the gzipped variant too, so room for it is
+        // reserved before anything is read
+        long gzLength = 0;
+        if (preAttrs != null) {
+            gzLength = preAttrs.size();
+        } else if (compressible && attrs.size() >= MIN_COMPRESS_BYTES) {
+            gzLength = maxGzipLength(attrs.size());
+        }
+        
+        if (cache.accepts(attrs.size() + gzLength)) {
+            byte[] b = Files.readAllBytes(p);
+            byte[] gz = null;
+            if (preAttrs != null) {
+                gz = Files.readAllBytes(pre);
+            } else if (gzLength > 0) {
+                gz = gzip(b);
+            }
+            return new AssetCache.Asset(b, mimeType, lm, null, gz);
+        }
+        
+        // too big to hold on the heap; let the OS page it in as needed
+        int mappings = (preAttrs == null) ? 1 : 2;
+        if (attrs.size() > Integer.MAX_VALUE || mappings > cache.maxMapped()) return null;
+        AssetCache.Asset gz = (preAttrs == null) ? null 
+                : new AssetCache.Asset(map(pre), mimeType, lm, 
+                        BoomResponse.etagFor(preAttrs.size(), preAttrs.lastModifiedTime().toMillis()), GZIP, null);
+        return new AssetCache.Asset(map(p), mimeType, lm, BoomResponse.etagFor(attrs.size(), lm), null, gz);
+    }
+    
+    private static BasicFileAttributes attributesOf(Path p) throws IOException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+    
+    private static ByteBuffer map(Path p) throws IOException {
+        try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+    }
+    
+    private BoomResponse uncached(String path, boolean gzip) {
         if (_prefix != null) path = _prefix.resolve(path.replaceAll("^/*", "")).toString();
         log.debug("Looking for [{}]", path);
 
@@ -37,7 +254,13 @@ public class FilesystemResourceRoute extends ResourceRoute {
             log.debug("Not resolving path that points to a directory: {}", path);
         } else if (Files.isRegularFile(p)) {
             try {
-                return new BufferedInputStream(Files.newInputStream(p));
+                BoomResponse result = new BoomResponse(p);
+                String mimeType = MimeType.forPath(p).toString();
+                if (!compressible(mimeType)) return result;
+                result.vary(VARY_ENCODING);
+                if (!gzip) return result;
+                BoomResponse gzipped = gzipped(p, mimeType);
+                return (gzipped == null) ? result : gzipped.vary(VARY_ENCODING);
             } catch (IOException e) {
                 log.error(e.getMessage(), e);
             }
@@ -45,4 +268,33 @@ public class FilesystemResourceRoute extends ResourceRoute {
         return null;
     }
     
+    /**
+     * Returns the gzipped variant of a file, from an up-to-date sibling ".gz"
+     * file if there is one, or else compressed once and cached until the file
+     * changes
+     * @return the gzipped variant, or null if the file should be sent as-is
+     */
+    private BoomResponse gzipped(Path p, String mimeType) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        long lm = attrs.lastModifiedTime().toMillis();
+        
+        Path pre = p.resolveSibling(p.getFileName() + ".gz");
+        if (Files.isRegularFile(pre) && Files.getLastModifiedTime(pre).toMillis() >= lm) {
+            return new BoomResponse(pre).as(mimeType).encoding(GZIP);
+        }
+        
+        AssetCache cache = _gzipCache;
+        if (attrs.size() < MIN_COMPRESS_BYTES || !cache.accepts(maxGzipLength(attrs.size()))) return null;
+        
+        // keyed by the file's current size and time as well as its path, so
+        // a changed file is recompressed and its stale variant ages out
+        String key = p.toString() + BoomResponse.etagFor(attrs.size(), lm);
+        AssetCache.Asset a = cache.get(key);
+        if (a == null) {
+            byte[] gz = gzip(Files.readAllBytes(p));
+            a = cache.put(key, new AssetCache.Asset(gz, mimeType, lm, GZIP, null));
+        }
+        return a.toResponse(true);
+    }
+    
 }
@@ -0,0 +1,82 @@
+package com.martiansoftware.boom;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The default JsonCodec, backed by a Gson
+ *
+ * @author mlamb
+ */
+class GsonCodec implements JsonCodec {
+
+    private final Gson _gson;
+
+    GsonCodec(Gson gson) {
+        _gson = gson;
+    }
+
+    Gson gson() {
+        return _gson;
+    }
+
+    @Override public void write(Object src, Writer out) throws IOException {
+        try {
+            _gson.toJson(src, out);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    @Override public <T> T read(Reader in, Class<T> clazz) throws IOException {
+        try {
+            return _gson.fromJson(in, clazz);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    @Override public <T> Iterator<T> readArray(Reader in, Class<T> clazz) throws IOException {
+        TypeAdapter<T> adapter = _gson.getAdapter(clazz);
+        JsonReader jr = new JsonReader(in);
+        jr.beginArray();
+        return new Iterator<T>() {
+            @Override public boolean hasNext() {
+                try {
+                    if (jr.hasNext()) return true;
+                    if (jr.peek() == JsonToken.END_ARRAY) {
+                        jr.endArray();
+                        if (jr.peek() != JsonToken.END_DOCUMENT) throw new JsonSyntaxException("Unexpected content after array");
+                    }
+                    return false;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            @Override public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                try {
+                    return adapter.read(jr);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override public String toString() {
+        return "GsonCodec[" + _gson + "]";
+    }
+}
@@ -7,38 +7,218 @@ package com.martiansoftware.boom;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
 import com.martiansoftware.io.AtomicFileOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.HaltException;
 import static com.martiansoftware.boom.Boom.request;
+import static spark.Spark.halt; // not Boom's, so binding a body doesn't need Boom (and spark) started
 
 /**
  *
  * @author mlamb
  */
 public class Json {
-    private static Gson _gson;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssXXX";
     
-    private static Gson gson() {
-        if (_gson == null) _gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX").setPrettyPrinting().create();
-        return _gson;
+    private static final Logger log = LoggerFactory.getLogger(Json.class);
+    
+    // adapters registered via register(), used by the default codecs; guarded by Json.class
+    private static final Map<Class<?>, TypeAdapter<?>> _adapters = new LinkedHashMap<>();
+    
+    private static volatile Codecs _custom = null;   // set via use()
+    private static volatile Codecs _defaults = null; // built as needed from _adapters
+    private static volatile boolean _compact = false;
+    
+    // generous for ordinary requests; raise them for bulk imports
+    static final long DEFAULT_MAX_BODY_BYTES = 16 * 1024 * 1024;
+    static final int DEFAULT_MAX_DEPTH = 64;
+    private static volatile long _maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+    private static volatile int _maxDepth = DEFAULT_MAX_DEPTH;
+    
+    private static class Codecs {
+        final JsonCodec pretty;
+        final JsonCodec compact;
+        Codecs(JsonCodec pretty, JsonCodec compact) {
+            this.pretty = pretty;
+            this.compact = compact;
+        }
     }
-
+    
+    private static Codecs codecs() {
+        Codecs c = _custom;
+        if (c != null) return c;
+        c = _defaults;
+        if (c == null) {
+            synchronized(Json.class) {
+                c = _defaults;
+                if (c == null) {
+                    GsonBuilder pretty = builder().setPrettyPrinting();
+                    c = new Codecs(new GsonCodec(pretty.create()), new GsonCodec(builder().create()));
+                    _defaults = c;
+                }
+            }
+        }
+        return c;
+    }
+    
+    // called with the lock held
+    private static GsonBuilder builder() {
+        GsonBuilder b = new GsonBuilder().setDateFormat(DATE_FORMAT);
+        for (Map.Entry<Class<?>, TypeAdapter<?>> e : _adapters.entrySet()) {
+            b.registerTypeAdapter(e.getKey(), e.getValue());
+        }
+        return b;
+    }
+    
+    /**
+     * Returns the codec currently used for JSON output, honoring compact()
+     * @return the current JsonCodec
+     */
+    public static JsonCodec codec() {
+        Codecs c = codecs();
+        return _compact ? c.compact : c.pretty;
+    }
+    
+    private static JsonCodec compactCodec() {
+        return codecs().compact;
+    }
+    
+    /**
+     * Uses the specified Gson for all JSON, compact or not.  Adapters
+     * registered via register() are not added to it.
+     * @param gson the Gson to use
+     */
     public static void use(Gson gson) {
-        _gson = gson;
+        use(new GsonCodec(gson));
+    }
+    
+    /**
+     * Uses the specified codec for all JSON, compact or not.  Adapters
+     * registered via register() are not added to it.
+     * @param codec the JsonCodec to use
+     */
+    public static void use(JsonCodec codec) {
+        use(codec, codec);
+    }
+    
+    /**
+     * Uses the specified codecs for pretty printed and compact JSON
+     * respectively.  Adapters registered via register() are not added to them.
+     * @param pretty the JsonCodec to use unless compact(true) has been called,
+     * and for files
+     * @param compact the JsonCodec to use after compact(true), and wherever
+     * compact JSON is required (e.g. NDJSON)
+     */
+    public static void use(JsonCodec pretty, JsonCodec compact) {
+        _custom = new Codecs(pretty, compact);
+    }
+    
+    /**
+     * Registers a hand-written TypeAdapter for a type with the default Gson
+     * configurations, so that hot types (e.g. frequently returned DTOs) are
+     * converted without Gson's reflection.  Registering again for the same type
+     * replaces the previous adapter.
+     * @param <T> the type
+     * @param type the exact class the adapter handles
+     * @param adapter the adapter
+     */
+    public static synchronized <T> void register(Class<T> type, TypeAdapter<T> adapter) {
+        if (_custom != null) log.warn("Adapter for {} registered after Json.use(); it won't be used", type.getName());
+        _adapters.put(type, adapter);
+        _defaults = null;
+    }
+    
+    /**
+     * Switches between compact output (e.g. for production) and pretty
+     * printed output (the default)
+     * @param compact true for compact output
+     */
+    public static void compact(boolean compact) {
+        _compact = compact;
+    }
+    
+    public static String toJson(Object src) {
+        StringWriter sw = new StringWriter();
+        toJson(src, sw);
+        return sw.toString();
+    }
+    
+    public static void toJson(Object src, Appendable writer) {
+        try {
+            codec().write(src, (writer instanceof Writer) ? (Writer) writer : new AppendableWriter(writer));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private static class AppendableWriter extends Writer {
+        private final Appendable _a;
+        AppendableWriter(Appendable a) { _a = a; }
+        @Override public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; ++i) _a.append(cbuf[i]);
+        }
+        @Override public void write(String str, int off, int len) throws IOException {
+            _a.append(str, off, off + len);
+        }
+        @Override public void write(int c) throws IOException { _a.append((char) c); }
+        @Override public void flush() {}
+        @Override public void close() {}
+    }
+    
+    /**
+     * Writes JSON as UTF-8 to an OutputStream as it's produced, without
+     * building it up in memory first.  The stream is flushed but not closed.
+     * @param src the object to serialize
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    public static void toJson(Object src, OutputStream out) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), STREAM_BUFFER_SIZE);
+        codec().write(src, w);
+        w.flush();
+    }
+    
+    /**
+     * Writes compact JSON regardless of compact(), e.g. for formats such as
+     * NDJSON that need each value on a single line
+     */
+    static void toCompactJson(Object src, Writer w) throws IOException {
+        compactCodec().write(src, w);
     }
     
-    public static String toJson(Object src) { return gson().toJson(src); }
-    public static void toJson(Object src, Appendable writer) { gson().toJson(src, writer); }
     public static void toJson(Object src, Path p) throws IOException {
         AtomicFileOutputStream ao = new AtomicFileOutputStream(p);
         OutputStreamWriter o = new OutputStreamWriter(ao);
         boolean success = false;
         try {
-            gson().toJson(src, o);
+            codec().write(src, o);
             o.close();
             success = true;
         } finally {
@@ -46,13 +226,273 @@ public class Json {
         }
     }
     
-    public static <T> T postBodyAs(Class<T> clazz) { return gson().fromJson(request().body(), clazz);}
+    /**
+     * Sets the limits applied when binding request bodies.  A body larger than
+     * maxBytes is rejected with status 413, and one nested more deeply than
+     * maxDepth with status 400.
+     * @param maxBytes the maximum size of a request body, in bytes
+     * @param maxDepth the maximum nesting depth of arrays and objects
+     */
+    public static void postBodyLimits(long maxBytes, int maxDepth) {
+        _maxBodyBytes = maxBytes;
+        _maxDepth = maxDepth;
+    }
+    
+    /**
+     * Binds the request body to an object, reading it straight from the
+     * request rather than from a String copy of it.  Malformed JSON is rejected
+     * with status 400; see also postBodyLimits().
+     * @param <T> the type of object to bind to
+     * @param clazz the class of object to bind to
+     * @return the bound object, or null if the body is empty
+     */
+    public static <T> T postBodyAs(Class<T> clazz) {
+        return bodyAs(request().raw(), clazz);
+    }
+    
+    static <T> T bodyAs(HttpServletRequest raw, Class<T> clazz) {
+        Reader body = bodyReader(raw);
+        try (Reader r = body) {
+            return codec().read(r, clazz);
+        } catch (IOException | RuntimeException e) {
+            throw badBody(e);
+        }
+    }
+    
+    /**
+     * Binds the elements of a request body that is a JSON array, one at a time
+     * as they are read, so that the whole body never has to be in memory at
+     * once (e.g. for bulk imports).  Malformed JSON is rejected with status 400,
+     * either here or from the iterator; see also postBodyLimits().
+     * @param <T> the type of object to bind each element to
+     * @param clazz the class of object to bind each element to
+     * @return an Iterator over the bound elements
+     */
+    public static <T> Iterator<T> postBodyElements(Class<T> clazz) {
+        return bodyElements(request().raw(), clazz);
+    }
+    
+    static <T> Iterator<T> bodyElements(HttpServletRequest raw, Class<T> clazz) {
+        Reader body = bodyReader(raw);
+        Iterator<T> it;
+        try {
+            it = codec().readArray(body, clazz);
+        } catch (IOException | RuntimeException e) {
+            throw badBody(e);
+        }
+        return new Iterator<T>() {
+            @Override public boolean hasNext() {
+                try {
+                    return it.hasNext();
+                } catch (RuntimeException e) {
+                    throw badBody(e);
+                }
+            }
+            @Override public T next() {
+                try {
+                    return it.next();
+                } catch (NoSuchElementException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw badBody(e);
+                }
+            }
+        };
+    }
+    
+    // halts (outside of any handler that would pass it to badBody) if the body
+    // is known to be too big or its charset isn't supported
+    private static Reader bodyReader(HttpServletRequest raw) {
+        long max = _maxBodyBytes;
+        if (raw.getContentLengthLong() > max) halt(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        try {
+            String enc = raw.getCharacterEncoding();
+            Charset cs = (enc == null) ? StandardCharsets.UTF_8 : Charset.forName(enc);
+            InputStream in = new LimitedInputStream(raw.getInputStream(), max);
+            return new DepthLimitedReader(new BufferedReader(new InputStreamReader(in, cs), STREAM_BUFFER_SIZE), _maxDepth);
+        } catch (IOException e) {
+            throw badBody(new ReadFailedException(e));
+        } catch (IllegalArgumentException e) {
+            throw badBody(e);
+        }
+    }
+    
+    // halts with the status for a body that can't be bound, or returns the
+    // exception to throw if the body couldn't be read at all
+    private static RuntimeException badBody(Exception e) {
+        if (e instanceof HaltException) throw (HaltException) e; // already decided
+        // codecs wrap the interesting exception in their own
+        Throwable t = e;
+        while (!(t instanceof ReadFailedException) && t.getCause() != null && t.getCause() != t) t = t.getCause();
+        if (t instanceof LimitExceededException) {
+            halt(((LimitExceededException) t).status, t.getMessage());
+        }
+        if (!(t instanceof ReadFailedException)) {
+            halt(HttpServletResponse.SC_BAD_REQUEST, "Malformed JSON: " + t.getMessage());
+        }
+        // e.g. the client went away mid-body, which says nothing about its JSON
+        return new UncheckedIOException(((ReadFailedException) t).failure);
+    }
+    
+    /**
+     * Marks a failure to read the request itself, as opposed to a problem with
+     * what was read
+     */
+    private static class ReadFailedException extends IOException {
+        final IOException failure;
+        ReadFailedException(IOException failure) {
+            super(failure.getMessage(), failure);
+            this.failure = failure;
+        }
+    }
     
-    public static <T> T fromJson(String j, Class<T> clazz) { return gson().fromJson(j, clazz); }
-    public static <T> T fromJson(Reader r, Class<T> clazz) { return gson().fromJson(r, clazz); }    
+    private static class LimitExceededException extends IOException {
+        final int status;
+        LimitExceededException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+    
+    /**
+     * Fails once more than a set number of bytes have been read
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long _max;
+        private long _count = 0;
+        
+        LimitedInputStream(InputStream in, long max) {
+            super(in);
+            _max = max;
+        }
+        
+        private int counted(int n) throws IOException {
+            if (n > 0) _count += n;
+            if (_count > _max) {
+                throw new LimitExceededException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, 
+                                                    "Request body exceeds " + _max + " bytes");
+            }
+            return n;
+        }
+        
+        @Override public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                throw new ReadFailedException(e);
+            }
+            if (b >= 0) counted(1);
+            return b;
+        }
+        
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException e) {
+                throw new ReadFailedException(e);
+            }
+            return counted(n);
+        }
+        
+        @Override public long skip(long n) throws IOException {
+            long skipped;
+            try {
+                skipped = super.skip(Math.min(n, Integer.MAX_VALUE));
+            } catch (IOException e) {
+                throw new ReadFailedException(e);
+            }
+            return counted((int) skipped);
+        }
+    }
+    
+    /**
+     * Fails once arrays and objects are nested more than a set number of
+     * levels deep, ignoring brackets in strings and comments.  Gson's lenient
+     * parser accepts single-quoted strings and #, //, and /* comments too, so
+     * those are recognized here as well.
+     */
+    static class DepthLimitedReader extends FilterReader {
+        private static final char LINE_COMMENT = '\n', BLOCK_COMMENT = '*';
+        
+        private final int _max;
+        private int _depth = 0;
+        private char _quote = 0; // the quote that opened the current string, if in one
+        private boolean _escaped = false;
+        private char _comment = 0; // LINE_COMMENT or BLOCK_COMMENT, if in one
+        private char _prev = 0;
+        
+        DepthLimitedReader(Reader in, int max) {
+            super(in);
+            _max = max;
+        }
+        
+        private void scan(char c) throws IOException {
+            char prev = _prev;
+            _prev = c;
+            if (_quote != 0) {
+                if (_escaped) _escaped = false;
+                else if (c == '\\') _escaped = true;
+                else if (c == _quote) _quote = 0;
+            } else if (_comment == LINE_COMMENT) {
+                if (c == '\n' || c == '\r') _comment = 0;
+            } else if (_comment == BLOCK_COMMENT) {
+                if (prev == '*' && c == '/') _comment = 0;
+            } else if (c == '"' || c == '\'') {
+                _quote = c;
+            } else if (c == '#' || (prev == '/' && c == '/')) {
+                _comment = LINE_COMMENT;
+            } else if (prev == '/' && c == '*') {
+                _comment = BLOCK_COMMENT;
+                _prev = 0; // so "/*/" doesn't also close it
+            } else if (c == '[' || c == '{') {
+                if (++_depth > _max) {
+                    throw new LimitExceededException(HttpServletResponse.SC_BAD_REQUEST, 
+                                                        "JSON nested more than " + _max + " levels deep");
+                }
+            } else if ((c == ']' || c == '}') && _depth > 0) {
+                --_depth;
+            }
+        }
+        
+        @Override public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) scan((char) c);
+            return c;
+        }
+        
+        @Override public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = super.read(cbuf, off, len);
+            for (int i = 0; i < n; ++i) scan(cbuf[off + i]);
+            return n;
+        }
+        
+        // skipped characters still have to be scanned
+        @Override public long skip(long n) throws IOException {
+            if (n < 0) throw new IllegalArgumentException("skip value is negative");
+            char[] buf = new char[(int) Math.min(n, STREAM_BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(buf, 0, (int) Math.min(n - skipped, buf.length));
+                if (r < 0) break;
+                skipped += r;
+            }
+            return skipped;
+        }
+    }
+    
+    public static <T> T fromJson(String j, Class<T> clazz) { return (j == null) ? null : fromJson(new StringReader(j), clazz); }
+    public static <T> T fromJson(Reader r, Class<T> clazz) {
+        try {
+            return codec().read(r, clazz);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
     public static <T> T fromJson(Path p, Class<T> clazz) throws IOException {
         try(Reader r = Files.newBufferedReader(p)) {
-            return gson().fromJson(r, clazz);
+            return codec().read(r, clazz);
         }
     }
     
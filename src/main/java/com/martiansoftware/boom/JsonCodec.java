@@ -0,0 +1,49 @@
+package com.martiansoftware.boom;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Iterator;
+
+/**
+ * Converts objects to and from JSON on Boom's behalf.  Boom uses Gson by
+ * default; install a different JsonCodec via Json.use() to change how (or with
+ * what library) JSON is produced and parsed.
+ *
+ * Implementations must be thread safe.  Malformed input may be reported with
+ * an IOException or with whatever unchecked exception the underlying library
+ * uses.
+ *
+ * @author mlamb
+ */
+public interface JsonCodec {
+
+    /**
+     * Writes an object as JSON.  The writer is neither flushed nor closed.
+     * @param src the object to write
+     * @param out where to write it
+     * @throws IOException if the JSON can't be written
+     */
+    void write(Object src, Writer out) throws IOException;
+
+    /**
+     * Reads a single JSON value
+     * @param <T> the type of object to bind to
+     * @param in the JSON to read
+     * @param clazz the class of object to bind to
+     * @return the bound object, or null if the input is empty
+     * @throws IOException if the JSON can't be read
+     */
+    <T> T read(Reader in, Class<T> clazz) throws IOException;
+
+    /**
+     * Reads the elements of a JSON array one at a time, as they're needed.
+     * The returned Iterator reports errors with unchecked exceptions.
+     * @param <T> the type of object to bind each element to
+     * @param in the JSON to read
+     * @param clazz the class of object to bind each element to
+     * @return an Iterator over the bound elements
+     * @throws IOException if the start of the array can't be read
+     */
+    <T> Iterator<T> readArray(Reader in, Class<T> clazz) throws IOException;
+}
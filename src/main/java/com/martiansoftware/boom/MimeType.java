@@ -2,8 +2,6 @@ package com.martiansoftware.boom;
 
 import java.nio.file.Path;
 import java.util.Map;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 public enum MimeType {
     _123("application/vnd.lotus-1-2-3"),
@@ -547,6 +545,7 @@ public enum MimeType {
     NBP("application/vnd.wolfram.player"),
     NC("application/x-netcdf"),
     NDC("application/vnd.osa.netdeploy"),
+    NDJSON("application/x-ndjson"),
     NDL("application/vnd.lotus-notes"),
     NDS("application/vnd.nintendo.nitro.rom"),
     N_GAGE("application/vnd.nokia.n-gage.symbian.install"),
@@ -1122,12 +1121,18 @@ public enum MimeType {
     ZMM("application/vnd.HandHeld-Entertainment+xml"),
     ZONE("text/dns");
 
+
     private static final Map<String, MimeType> byName = new java.util.HashMap<>();
-    private static final Pattern ext = Pattern.compile("^.*\\.([^.]+)$");
+    private static volatile ExtensionTable byExtension;
     private final String type;
     
     static {
-        for (MimeType m : MimeType.values()) byName.put(m.toString(), m);
+        Map<String, MimeType> exts = new java.util.HashMap<>();
+        for (MimeType m : MimeType.values()) {
+            byName.put(m.toString(), m);
+            exts.put(m.extension(), m);
+        }
+        byExtension = new ExtensionTable(exts);
     }
 
     public static MimeType forName(String headerVal) {
@@ -1137,16 +1142,10 @@ public enum MimeType {
     
     public static MimeType forFilename(String filename) {
         if (filename == null) return BIN;
-        Matcher m = ext.matcher(filename);
-        MimeType result = BIN;
-        if (m.matches()) {
-            String ex = m.group(1).toUpperCase();
-            if (Character.isDigit(ex.charAt(0))) ex = "_" + ex;
-            try {
-                result = MimeType.valueOf(ex);
-            } catch (Exception ohWell) {}
-        }
-        return result;
+        int dot = filename.lastIndexOf('.');
+        if (dot < 0 || dot == filename.length() - 1) return BIN;
+        MimeType result = byExtension.get(filename, dot + 1, filename.length());
+        return (result == null) ? BIN : result;
     }
 
     public static MimeType forPath(Path p) {
@@ -1156,12 +1155,39 @@ public enum MimeType {
         return forFilename(p.toString());
     }
     
+    /**
+     * Maps a file extension (case insensitive, without the dot) to a MimeType,
+     * adding to or replacing the extensions derived from the MimeType names
+     * @param extension the file extension, e.g. "mjs"
+     * @param type the MimeType for files with that extension
+     */
+    public static synchronized void register(String extension, MimeType type) {
+        if (extension == null || type == null) throw new IllegalArgumentException("extension and type are required");
+        byExtension = byExtension.with(extension, type);
+    }
+    
+    /**
+     * Makes a file extension an alias for another, already known, extension
+     * @param extension the new file extension, e.g. "htm5"
+     * @param existingExtension the extension whose type it should share, e.g. "html"
+     */
+    public static synchronized void alias(String extension, String existingExtension) {
+        MimeType type = (existingExtension == null) ? null : byExtension.get(existingExtension);
+        if (type == null) throw new IllegalArgumentException("Unknown file extension: " + existingExtension);
+        register(extension, type);
+    }
+    
     private MimeType(String t) {
         type = t;
     }
     
+    // the extension this value was named for, e.g. "_3GP" -> "3gp"
+    private String extension() {
+        String n = name();
+        return (n.length() > 1 && n.charAt(0) == '_' && Character.isDigit(n.charAt(1))) ? n.substring(1) : n;
+    }
+    
     @Override public String toString() {
         return type;
     }
 }
-
@@ -0,0 +1,90 @@
+package com.martiansoftware.boom;
+
+import static com.martiansoftware.boom.Boom.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import spark.utils.MimeParse;
+
+/**
+ * Chooses among a fixed set of MIME types based on a request's Accept header.
+ * Real clients send only a handful of distinct Accept headers, so each
+ * header's choice is worked out once and then remembered, making negotiation
+ * a single hash lookup.
+ *
+ * A Negotiator is thread safe, and is meant to be created once and reused.
+ *
+ * @author mlamb
+ */
+public class Negotiator {
+
+    // a client inventing new Accept headers just starts the cache over
+    private static final int MAX_CACHED = 256;
+    private static final Integer NONE = -1;
+
+    private final MimeType[] _types;
+    private final List<String> _candidates;
+    private final Map<String, Integer> _choices = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new Negotiator
+     * @param supportedMimeTypes the MIME types that can be returned, in order
+     * of preference when the client likes more than one of them equally
+     */
+    public Negotiator(MimeType... supportedMimeTypes) {
+        if (supportedMimeTypes.length == 0) throw new IllegalArgumentException("At least one MIME type is required");
+        _types = supportedMimeTypes.clone();
+        List<String> candidates = new ArrayList<>(_types.length);
+        for (MimeType m : _types) candidates.add(m.toString());
+        // MimeParse breaks ties in favor of the last candidate
+        Collections.reverse(candidates);
+        _candidates = Collections.unmodifiableList(candidates);
+    }
+
+    /**
+     * Chooses the supported MIME type most preferred by an Accept header
+     * @param accept the Accept header value; null is treated as "*&#47;*"
+     * @return the preferred MIME type, or null if none of them are acceptable
+     */
+    public MimeType choose(String accept) {
+        if (accept == null) accept = "*/*";
+        Integer choice = _choices.get(accept);
+        if (choice == null) {
+            choice = compute(accept);
+            if (_choices.size() >= MAX_CACHED) _choices.clear();
+            _choices.put(accept, choice);
+        }
+        return (choice < 0) ? null : _types[choice];
+    }
+
+    /**
+     * Chooses the supported MIME type most preferred by the current request,
+     * halting with status 406 (Not Acceptable) if none of them are acceptable
+     * @return the preferred MIME type
+     */
+    public MimeType choose() {
+        MimeType result = choose(request().headers("Accept"));
+        if (result == null) halt(406);
+        return result;
+    }
+
+    private Integer compute(String accept) {
+        String bestMatch;
+        try {
+            bestMatch = MimeParse.bestMatch(_candidates, accept);
+        } catch (RuntimeException unparseable) {
+            return NONE;
+        }
+        for (int i = 0; i < _types.length; ++i) {
+            if (_types[i].toString().equals(bestMatch)) return i;
+        }
+        return NONE;
+    }
+
+    @Override public String toString() {
+        return "Negotiator" + Arrays.toString(_types);
+    }
+}
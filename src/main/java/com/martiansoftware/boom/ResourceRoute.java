@@ -1,45 +1,161 @@
 package com.martiansoftware.boom;
 
 import static com.martiansoftware.boom.Boom.*;
-import java.io.InputStream;
-import java.nio.file.Path;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Base class for routes that serve static content.  Text-like content is
+ * served gzipped to clients that accept it, either from a precompressed
+ * sibling file (e.g. "app.js.gz" next to "app.js") or by compressing it once
+ * and caching the result.
+ *
+ * Paths that turn out to be missing from the whole chain of routes are
+ * remembered (until the content changes), so repeated requests for them are
+ * answered with a 404 without probing the chain again.
  *
  * @author mlamb
  */
 public abstract class ResourceRoute implements BoomRoute {
     private static final Logger log = LoggerFactory.getLogger(ResourceRoute.class);
     
+    static final String GZIP = "gzip";
+    static final String VARY_ENCODING = "Accept-Encoding";
+    
+    // below this, gzip's header and trailer eat most of the savings
+    static final int MIN_COMPRESS_BYTES = 256;
+    
+    // a storm of distinct bogus paths just starts the set over
+    static final int MAX_MISSING = 10000;
+    
     private final ResourceRoute _next;
     
+    // paths known to be missing from the whole chain starting here, mapped
+    // to the chain's version when they were found to be missing
+    private final Map<String, Long> _missing = new ConcurrentHashMap<>();
+    
     // TODO: specify a path prefix that will be stripped during resolution
     
     public ResourceRoute() { this(null); }
     public ResourceRoute(ResourceRoute next) { _next = next; }
 
-    abstract InputStream getInputStream(String path);
+    /**
+     * Looks up a resource
+     * @param path the path of the resource
+     * @param gzip true if the client accepts gzip-encoded content
+     * @return a response with the resource as its body and its MIME type,
+     * including its length and validators where known, or null if there is
+     * no such resource
+     */
+    abstract BoomResponse getResponse(String path, boolean gzip);
+    
+    /**
+     * Returns a number that changes whenever this route's content might
+     * have changed, or -1 if that can't be tracked (in which case lookups
+     * that find nothing can't be remembered)
+     * @return the version of this route's content
+     */
+    long version() { return 0; }
+    
+    private long chainVersion() {
+        long result = 0;
+        for (ResourceRoute r = this; r != null; r = r._next) {
+            long v = r.version();
+            if (v < 0) return -1;
+            result += v;
+        }
+        return result;
+    }
     
-    private InputStream tryInputStream(String path) {
-        InputStream result = getInputStream(path);
-        if (result == null && _next != null) result = _next.getInputStream(path);
+    private BoomResponse tryResponse(String path, boolean gzip) {
+        BoomResponse result = getResponse(path, gzip);
+        if (result == null && _next != null) result = _next.tryResponse(path, gzip);
         return result;
     }
     
     Object getResource(String path) throws Exception {
-        Path p = Paths.get(path);
-        InputStream in = tryInputStream(path);
-        if (in == null) {
-            log.warn("NULL input stream for path [{}] - trying index!", path);
-            p = p.resolve("index.html");
-            in = tryInputStream(p.toString());
+        // versions only ever increase, so a path remembered as missing at the
+        // current version is still missing
+        long version = chainVersion();
+        Long missingAt = _missing.get(path);
+        if (missingAt != null && missingAt == version && version >= 0) halt(HttpServletResponse.SC_NOT_FOUND);
+        
+        boolean gzip = acceptsGzip(request().headers(VARY_ENCODING));
+        BoomResponse result = tryResponse(path, gzip);
+        if (result == null) {
+            log.debug("No resource for path [{}] - trying index", path);
+            result = tryResponse(Paths.get(path).resolve("index.html").toString(), gzip);
         } // FIXME: allow user to specify defaults to try (not just index.html)
-        if (in == null) halt(HttpServletResponse.SC_NOT_FOUND);
-        return new BoomResponse(in).as(MimeType.forPath(p));
+        if (result == null) {
+            if (version >= 0) {
+                if (_missing.size() >= MAX_MISSING) _missing.clear();
+                _missing.put(path, version);
+            }
+            halt(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return result;
+    }
+    
+    /**
+     * Is a gzip variant of content of the specified type worth serving?
+     */
+    static boolean compressible(String mimeType) {
+        return mimeType.startsWith("text/")
+                || mimeType.contains("javascript")
+                || mimeType.contains("json")
+                || mimeType.contains("xml");
+    }
+    
+    /**
+     * Does an Accept-Encoding header allow gzip?
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        boolean any = false; // an explicit gzip entry overrides "*"
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            boolean star = "*".equals(name);
+            if (!star && !GZIP.equalsIgnoreCase(name) && !"x-gzip".equalsIgnoreCase(name)) continue;
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; ++i) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (!star) return accepted;
+            any = accepted;
+        }
+        return any;
+    }
+    
+    /**
+     * The most that gzip() can produce from content of the specified length
+     * (zlib's deflateBound() plus gzip's header and trailer), so that room
+     * for a gzipped variant can be reserved before compressing anything
+     */
+    static long maxGzipLength(long length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 18;
+    }
+    
+    static byte[] gzip(byte[] b) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(b.length / 3 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(bout)) {
+            out.write(b);
+        }
+        return bout.toByteArray();
     }
     
     @Override public Object handle() throws Exception {
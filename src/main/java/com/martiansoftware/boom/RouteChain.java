@@ -0,0 +1,44 @@
+package com.martiansoftware.boom;
+
+import java.util.Collection;
+import spark.Filter;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * A single endpoint's global before filters, route, and global after filters,
+ * composed once when the route is added so that dispatching a request doesn't
+ * need to look any of them up.
+ *
+ * @author mlamb
+ */
+class RouteChain implements Route {
+
+    private static final Filter[] NO_FILTERS = new Filter[0];
+
+    private final Filter[] _before;
+    private final Route _route;
+    private final Filter[] _after;
+
+    RouteChain(Collection<Filter> before, Route route, Collection<Filter> after) {
+        // copy filters at time of adding route, same as permissions
+        _before = before.toArray(NO_FILTERS);
+        _route = route;
+        _after = after.toArray(NO_FILTERS);
+    }
+
+    @Override public Object handle(Request req, Response rsp) throws Exception {
+        for (Filter f : _before) f.handle(req, rsp);
+        Object result = _route.handle(req, rsp);
+        if (_after.length > 0) {
+            // after filters may inspect or replace the body, as they could when
+            // they were registered with spark directly
+            if (result instanceof String) rsp.body((String) result);
+            for (Filter f : _after) f.handle(req, rsp);
+            if (rsp.body() != null) result = rsp.body();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,295 @@
+package com.martiansoftware.boom;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import spark.Route;
+import spark.route.HttpMethod;
+import spark.utils.MimeParse;
+
+/**
+ * Immutable, precompiled route table.  Paths are split into segments and
+ * stored in a trie per http method, so finding the endpoint for a request
+ * costs one step per path segment regardless of how many routes there are.
+ *
+ * Matching follows spark's path rules (":name" params, "*" splats that match
+ * one segment, or the rest of the path if they come last, significant trailing
+ * slashes) with one difference: when more than one route matches, static
+ * segments win over params, and params win over splats, rather than the
+ * earliest-registered route winning.  Routes that share a path and differ only
+ * in accept type are chosen between the same way spark does it.
+ *
+ * @author mlamb
+ */
+class RouteTrie {
+
+    private static final String ANY_TYPE = "*/*";
+    private static final String[] NO_SEGMENTS = new String[0];
+
+    private final Map<HttpMethod, Node> _roots;
+
+    private RouteTrie(Map<HttpMethod, Node> roots) {
+        _roots = roots;
+    }
+
+    /**
+     * Finds the endpoint that should handle a request
+     * @param method the request's http method
+     * @param uri the request uri (without query string)
+     * @param accept the request's Accept header, possibly null
+     * @return the matching endpoint, or null if there is none
+     */
+    Match find(HttpMethod method, String uri, String accept) {
+        String[] segments = segmentsOf(uri);
+        boolean trailingSlash = uri.endsWith("/");
+        Match result = find(_roots.get(method), segments, trailingSlash, accept);
+        if (result == null && method == HttpMethod.head) {
+            // spark answers HEAD with a GET route if there's no HEAD route
+            result = find(_roots.get(HttpMethod.get), segments, trailingSlash, accept);
+        }
+        return result;
+    }
+
+    /**
+     * @param method an http method
+     * @return true if find() can ever match a request using this method
+     */
+    boolean handles(HttpMethod method) {
+        return _roots.containsKey(method)
+                || (method == HttpMethod.head && _roots.containsKey(HttpMethod.get));
+    }
+
+    private Match find(Node root, String[] segments, boolean trailingSlash, String accept) {
+        if (root == null) return null;
+        Endpoints eps = root.find(segments, 0, trailingSlash);
+        if (eps == null) return null;
+        Endpoint ep = eps.choose(accept);
+        return (ep == null) ? null : new Match(ep, segments);
+    }
+
+    static String[] segmentsOf(String path) {
+        if (path == null || path.isEmpty()) return NO_SEGMENTS;
+        List<String> result = new ArrayList<>();
+        int start = 0, len = path.length();
+        while (start < len) {
+            int end = path.indexOf('/', start);
+            if (end < 0) end = len;
+            if (end > start) result.add(path.substring(start, end));
+            start = end + 1;
+        }
+        return result.toArray(NO_SEGMENTS);
+    }
+
+    /**
+     * Collects routes in the order they're added, then compiles them into
+     * an immutable RouteTrie.
+     */
+    static class Builder {
+        private final List<Endpoint> _endpoints = new ArrayList<>();
+
+        Builder add(HttpMethod method, String path, String acceptType, Route route) {
+            _endpoints.add(new Endpoint(method, path, acceptType == null ? ANY_TYPE : acceptType, route));
+            return this;
+        }
+
+        int size() { return _endpoints.size(); }
+
+        RouteTrie build() {
+            Map<HttpMethod, Node> roots = new EnumMap<>(HttpMethod.class);
+            for (Endpoint ep : _endpoints) {
+                Node n = roots.computeIfAbsent(ep.method, m -> new Node());
+                n.add(ep, 0);
+            }
+            roots.values().forEach(Node::compile);
+            return new RouteTrie(roots);
+        }
+    }
+
+    /**
+     * A route found for a request, along with the request's path segments so
+     * that params and splats can be extracted if (and only if) they're wanted.
+     */
+    static class Match {
+        final Endpoint endpoint;
+        private final String[] _segments;
+        private Map<String, String> _params = null;
+        private String[] _splat = null;
+
+        private Match(Endpoint ep, String[] segments) {
+            endpoint = ep;
+            _segments = segments;
+        }
+
+        Map<String, String> params() {
+            if (_params == null) {
+                Map<String, String> result = new java.util.HashMap<>();
+                String[] pattern = endpoint.pattern;
+                for (int i = 0; i < pattern.length && i < _segments.length; ++i) {
+                    if (pattern[i].startsWith(":")) result.put(pattern[i].toLowerCase(), decode(_segments[i]));
+                }
+                _params = Collections.unmodifiableMap(result);
+            }
+            return _params;
+        }
+
+        String param(String name) {
+            if (name == null) return null;
+            String key = name.startsWith(":") ? name : ":" + name;
+            return params().get(key.toLowerCase());
+        }
+
+        String[] splat() {
+            if (_splat == null) {
+                List<String> result = new ArrayList<>();
+                String[] pattern = endpoint.pattern;
+                for (int i = 0; i < pattern.length; ++i) {
+                    if (!"*".equals(pattern[i])) continue;
+                    if (i == pattern.length - 1 && endpoint.tail) {
+                        StringBuilder sb = new StringBuilder();
+                        for (int j = i; j < _segments.length; ++j) {
+                            if (j > i) sb.append('/');
+                            sb.append(_segments[j]);
+                        }
+                        result.add(sb.toString());
+                    } else if (i < _segments.length) {
+                        result.add(_segments[i]);
+                    }
+                }
+                _splat = result.toArray(NO_SEGMENTS);
+            }
+            return _splat.clone();
+        }
+
+        private static String decode(String s) {
+            try {
+                return URLDecoder.decode(s, "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                return s;
+            }
+        }
+    }
+
+    static class Endpoint {
+        final HttpMethod method;
+        final String path;
+        final String acceptType;
+        final Route route;
+        final String[] pattern;
+        final boolean trailingSlash;
+        final boolean tail; // ends with a splat that can swallow the rest of the path
+
+        Endpoint(HttpMethod method, String path, String acceptType, Route route) {
+            this.method = method;
+            this.path = path;
+            this.acceptType = acceptType;
+            this.route = route;
+            pattern = segmentsOf(path);
+            tail = path.endsWith("*");
+            trailingSlash = path.endsWith("/");
+        }
+
+        @Override public String toString() {
+            return String.format("%s %s (%s)", method, path, acceptType);
+        }
+    }
+
+    /**
+     * All of the endpoints that match a given path, in the order they were added.
+     */
+    private static class Endpoints {
+        private final List<Endpoint> _list = new ArrayList<>();
+        private Map<String, Endpoint> _byType = null;
+        private Endpoint _only = null;
+
+        void add(Endpoint ep) { _list.add(ep); }
+
+        void compile() {
+            if (_list.size() == 1 && ANY_TYPE.equals(_list.get(0).acceptType)) {
+                _only = _list.get(0);
+            } else {
+                _byType = new java.util.LinkedHashMap<>();
+                for (Endpoint ep : _list) _byType.putIfAbsent(ep.acceptType, ep);
+            }
+        }
+
+        Endpoint choose(String accept) {
+            if (_only != null) return _only;
+            if (accept == null) return _list.get(0);
+            String bestMatch = MimeParse.bestMatch(_byType.keySet(), accept);
+            return _byType.get(bestMatch);
+        }
+    }
+
+    private static class Node {
+        private Map<String, Node> _static = Collections.emptyMap();
+        private Node _param = null;
+        private Node _splat = null;
+        private Endpoints _here = null;      // routes ending here without a trailing slash
+        private Endpoints _hereSlash = null; // routes ending here with a trailing slash
+        private Endpoints _rest = null;      // routes ending in a splat here, matching the rest of the path
+
+        void add(Endpoint ep, int depth) {
+            if (depth == ep.pattern.length) {
+                if (ep.trailingSlash) {
+                    if (_hereSlash == null) _hereSlash = new Endpoints();
+                    _hereSlash.add(ep);
+                } else {
+                    if (_here == null) _here = new Endpoints();
+                    _here.add(ep);
+                }
+                return;
+            }
+
+            String seg = ep.pattern[depth];
+            if (ep.tail && depth == ep.pattern.length - 1) {
+                // trailing "*" stays in this node, and matches one or more segments
+                if (_rest == null) _rest = new Endpoints();
+                _rest.add(ep);
+                return;
+            }
+
+            Node next;
+            if (seg.startsWith(":")) {
+                if (_param == null) _param = new Node();
+                next = _param;
+            } else if ("*".equals(seg)) {
+                if (_splat == null) _splat = new Node();
+                next = _splat;
+            } else {
+                if (_static.isEmpty()) _static = new java.util.HashMap<>();
+                next = _static.computeIfAbsent(seg, s -> new Node());
+            }
+            next.add(ep, depth + 1);
+        }
+
+        void compile() {
+            if (_here != null) _here.compile();
+            if (_hereSlash != null) _hereSlash.compile();
+            if (_rest != null) _rest.compile();
+            _static.values().forEach(Node::compile);
+            if (_param != null) _param.compile();
+            if (_splat != null) _splat.compile();
+        }
+
+        Endpoints find(String[] segments, int depth, boolean trailingSlash) {
+            if (depth == segments.length) {
+                Endpoints result = trailingSlash ? _hereSlash : _here;
+                // spark lets "/a/*" match "/a/" as well
+                if (result == null && trailingSlash) result = _rest;
+                return result;
+            }
+
+            String seg = segments[depth];
+            Node n = _static.get(seg);
+            Endpoints result = (n == null) ? null : n.find(segments, depth + 1, trailingSlash);
+            if (result == null && _param != null) result = _param.find(segments, depth + 1, trailingSlash);
+            if (result == null && _splat != null) result = _splat.find(segments, depth + 1, trailingSlash);
+            if (result == null) result = _rest;
+            return result;
+        }
+    }
+}
@@ -22,10 +22,15 @@ class RouteWrapper implements Route {
     public Object handle(Request rqst, Response rspns) throws Exception {
         try {
             Object result = _wrapped.handle(rqst, rspns);
+            if (StreamedResults.isStreamable(result)) {
+                result = StreamedResults.of(result);
+            }
             if (result instanceof BoomResponse) {
                 result = ((BoomResponse) result).respond(rspns);
             } else if (result instanceof DumbTemplate) {
-                result = ((DumbTemplate) result).render(Boom.context());
+                // leaves the status and type alone, unlike a BoomResponse
+                TextBody.send(((DumbTemplate) result).render(Boom.context()), rspns.raw());
+                result = rspns.raw();
             }
             return result;
         } catch (HaltException he) {
@@ -0,0 +1,61 @@
+package com.martiansoftware.boom;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+
+/**
+ * Hands the route Boom matched back to Spark, so that Spark's own
+ * Request.params() and Request.splat() see the matched route's path rather
+ * than the catch-all route Spark actually dispatched to.
+ *
+ * Spark doesn't offer a public way to do this, so its RouteMatch and
+ * Request.changeMatch() are looked up reflectively.  If that ever fails (e.g.
+ * a Spark upgrade moves them), a warning is logged once and Spark's params
+ * stay empty; Boom's params() and splat() are unaffected.
+ *
+ * @author mlamb
+ */
+class SparkMatch {
+
+    private static final Logger log = LoggerFactory.getLogger(SparkMatch.class);
+
+    private static volatile Constructor<?> _newMatch;
+    private static volatile Method _changeMatch;
+    private static volatile boolean _broken = false;
+
+    private SparkMatch() {}
+
+    static void apply(Request req, RouteTrie.Endpoint ep, String uri) {
+        if (_broken) return;
+        try {
+            Method changeMatch = _changeMatch;
+            if (changeMatch == null) changeMatch = init(req.getClass());
+            changeMatch.invoke(req, _newMatch.newInstance(ep.route, ep.path, uri, ep.acceptType));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            _broken = true;
+            log.warn("Unable to pass route matches to Spark; use Boom.params() and Boom.splat() instead", e);
+        }
+    }
+
+    private static synchronized Method init(Class<?> requestClass) throws ReflectiveOperationException {
+        if (_changeMatch != null) return _changeMatch;
+        Class<?> matchClass = Class.forName("spark.routematch.RouteMatch");
+        Constructor<?> newMatch = matchClass.getConstructor(Object.class, String.class, String.class, String.class);
+        Method changeMatch = null;
+        for (Class<?> c = requestClass; c != null && changeMatch == null; c = c.getSuperclass()) {
+            try {
+                changeMatch = c.getDeclaredMethod("changeMatch", matchClass);
+            } catch (NoSuchMethodException e) {
+                // keep looking up the hierarchy
+            }
+        }
+        if (changeMatch == null) throw new NoSuchMethodException(requestClass.getName() + ".changeMatch");
+        changeMatch.setAccessible(true);
+        _newMatch = newMatch;
+        _changeMatch = changeMatch;
+        return changeMatch;
+    }
+}
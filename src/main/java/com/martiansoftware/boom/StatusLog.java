@@ -0,0 +1,145 @@
+package com.martiansoftware.boom;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs halts and errors for StatusPage without flooding the log when the same
+ * thing happens over and over (e.g. a storm of 503s).  Occurrences are counted
+ * by route and status.  The first one for each route and status is logged in
+ * full (with its stack trace, if any), and after that at most one per
+ * interval; the rest are just counted and summarized once per interval.
+ * 
+ * Stack traces for errors without an exception are only captured when they're
+ * going to be logged.
+ *
+ * @author mlamb
+ */
+class StatusLog {
+
+    // logged as StatusPage, as these always have been
+    private static final Logger log = LoggerFactory.getLogger(StatusPage.class);
+    
+    private static final long INTERVAL_SECONDS = 60;
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(INTERVAL_SECONDS);
+    private static final int MAX_KEYS = 1000; // beyond this, routes are lumped together
+    private static final String OTHER_ROUTES = "(other)";
+    
+    private static final Map<String, Counter> _counters = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService _summarizer = null;
+
+    private StatusLog() {}
+    
+    /**
+     * Records a halt, logging it if it's sampled
+     */
+    static void halt(int status, String ip, String path) {
+        Counter c = counter(status);
+        if (c.sample()) {
+            log.warn("Halt({}) : {} requested {}{}", status, ip, path, c.suppressedNote());
+        }
+    }
+    
+    /**
+     * Records an error, logging it (with a stack trace) if it's sampled
+     * @param status the status sent
+     * @param e the exception, or null to log the caller's stack
+     */
+    static void error(int status, Exception e) {
+        Counter c = counter(status);
+        if (c.sample()) {
+            if (e == null) e = new Exception("Status " + status + " at");
+            log.error(status + ": " + e.getMessage() + c.suppressedNote(), e);
+        }
+    }
+    
+    /**
+     * Returns how many times each route has produced each status via StatusPage
+     * @return counts keyed by route and status, e.g. "GET /things/:id 503"
+     */
+    static Map<String, Long> counts() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Counter c : _counters.values()) result.put(c.name, c.total.sum());
+        return result;
+    }
+    
+    private static Counter counter(int status) {
+        String route = Boom.isRequestThread() ? Boom.routeName() : OTHER_ROUTES;
+        String key = route + " " + status;
+        Counter c = _counters.get(key);
+        if (c == null) {
+            if (_counters.size() >= MAX_KEYS) {
+                route = OTHER_ROUTES;
+                key = route + " " + status;
+            }
+            c = _counters.computeIfAbsent(key, k -> new Counter(k, status));
+            startSummarizer();
+        }
+        return c;
+    }
+    
+    private static void startSummarizer() {
+        if (_summarizer != null) return;
+        synchronized(StatusLog.class) {
+            if (_summarizer != null) return;
+            ScheduledExecutorService s = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "boom-status-log");
+                t.setDaemon(true);
+                return t;
+            });
+            s.scheduleAtFixedRate(StatusLog::summarize, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+            _summarizer = s;
+        }
+    }
+    
+    private static void summarize() {
+        try {
+            for (Counter c : _counters.values()) {
+                long n = c.suppressed.getAndSet(0);
+                if (n == 0) continue;
+                if (c.status >= 500) {
+                    log.error("{}: {} more in the last {}s ({} in all)", c.name, n, INTERVAL_SECONDS, c.total.sum());
+                } else {
+                    log.warn("{}: {} more in the last {}s ({} in all)", c.name, n, INTERVAL_SECONDS, c.total.sum());
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error(e.getMessage(), e); // keep the schedule going
+        }
+    }
+    
+    private static class Counter {
+        final String name;
+        final int status;
+        final LongAdder total = new LongAdder();
+        final AtomicLong suppressed = new AtomicLong();
+        private final AtomicLong _lastSampled = new AtomicLong(System.nanoTime() - INTERVAL_NANOS);
+        
+        Counter(String name, int status) {
+            this.name = name;
+            this.status = status;
+        }
+        
+        // counts an occurrence and says whether to log it
+        boolean sample() {
+            total.increment();
+            long now = System.nanoTime();
+            long last = _lastSampled.get();
+            if (now - last >= INTERVAL_NANOS && _lastSampled.compareAndSet(last, now)) return true;
+            suppressed.incrementAndGet();
+            return false;
+        }
+        
+        String suppressedNote() {
+            return (total.sum() > 1) ? " (further occurrences summarized every " + INTERVAL_SECONDS + "s)" : "";
+        }
+    }
+}
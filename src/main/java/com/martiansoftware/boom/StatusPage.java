@@ -3,27 +3,62 @@ package com.martiansoftware.boom;
 
 import static com.martiansoftware.boom.Boom.*;
 import com.martiansoftware.dumbtemplates.DumbTemplate;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.http.HttpServletResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import spark.HaltException;
 
 /**
+ * Pages without a message (e.g. a plain halt(404)) are the same every time for
+ * a given status and type, so they're rendered once and then sent as cached
+ * bytes.  A cached page is rendered again if its template or the JSON codec
+ * changes; templates aren't even looked up while the template store's version
+ * shows that none of them can have changed.  Prerendered HTML pages are rendered with a fresh template context
+ * (from the ContextFactory) rather than the request's; call prerender(false)
+ * if your status templates need values from the request's context.
  *
  * @author mlamb
  */
 public class StatusPage {
-    private static final Logger log = LoggerFactory.getLogger(StatusPage.class);
+    private static final String DEFAULT_TEMPLATE = "/boom/status/default.html";
+    
+    // HTML is listed first so that browsers and clients that will take
+    // anything (or don't say) get it, as they always have
+    private static final Negotiator _negotiator = new Negotiator(MimeType.HTML, MimeType.JSON, MimeType.TEXT);
+    
+    private static volatile boolean _prerender = true;
+    private static final Map<Integer, Prerendered> _prerendered = new ConcurrentHashMap<>(); // see key()
+    
+    /**
+     * Turns prerendering of pages without a message on (the default) or off
+     * @param prerender true to send cached pages where possible
+     */
+    public static void prerender(boolean prerender) {
+        _prerender = prerender;
+        _prerendered.clear();
+    }
+    
+    /**
+     * Returns how many times each route has produced each status via
+     * StatusPage (halts, exceptions, and errors), e.g. for monitoring.  Only
+     * the first of each, and then one a minute, is logged individually; the
+     * rest are summarized once a minute.
+     * @return counts keyed by route and status, e.g. "GET /things/:id 503"
+     */
+    public static Map<String, Long> counts() {
+        return StatusLog.counts();
+    }
     
     public static BoomResponse of(HaltException he) {
-        log.warn("Halt({}) : {} requested {}", he.getStatusCode(), request().ip(), request().pathInfo());
+        StatusLog.halt(he.getStatusCode(), request().ip(), request().pathInfo());
         return of(he.getStatusCode(), he.getBody(), false);
     }
     
     public static BoomResponse of(Exception e) {
-        log(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+        StatusLog.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e);
         return of(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage(), false);
     }
     
@@ -33,45 +68,132 @@ public class StatusPage {
     
     private static BoomResponse of(int status, String body, boolean logErr) {
         if (logErr && isServerError(status)) {
-            log(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, new Exception());
+            StatusLog.error(status, null);
         }
-        ResourceBundle rb = Boom.r("httpstatus");
-        String stext = rb.getString(String.format("SC_%d", status));
         
-        if ("application/json".equals(request().headers("Accept"))) {
-            Map<String, Object> result = new java.util.TreeMap<>();
-            result.put("status", status);
-            result.put("status_desc", stext);
-            result.put("message", body);
-            return json(result).status(status);
-        } else if ("text/plain".equals(request().headers("Accept"))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("Status: ");
-            sb.append(status);
-            sb.append("\nStatus Description: ");
-            sb.append(stext == null ? "" : stext);
-            sb.append("\nMessage: ");
-            sb.append(body);
-            sb.append("\n");
-            return new BoomResponse(sb.toString()).status(status).as(MimeType.TEXT);
+        MimeType type = _negotiator.choose(request().headers("Accept"));
+        if (type != MimeType.JSON && type != MimeType.TEXT) type = MimeType.HTML;
+        if (body == null && _prerender) return prerendered(status, type);
+        
+        String stext = statusText(status);
+        if (type == MimeType.JSON) {
+            return new BoomResponse(json(status, stext, body)).status(status).as(MimeType.JSON);
+        } else if (type == MimeType.TEXT) {
+            return new BoomResponse(text(status, stext, body)).status(status).as(MimeType.TEXT);
         } else {
-            context("status", status);
-            context("title", String.format("%d %s", status, stext == null ? "" : stext));
-            context("body", body == null ? stext : body);
+            html(status, stext, body, context());
             // TODO: add stack trace if debug and status==500
-            DumbTemplate t = template(String.format("/boom/status/%d.html", status));
-            if (t == null) t = template("/boom/status/default.html");
-            return new BoomResponse(t.render(context()))
+            return new BoomResponse(templateFor(templateName(status)))
                                             .status(status)
                                             .as(MimeType.HTML);
         }
     }
     
+    private static BoomResponse prerendered(int status, MimeType type) {
+        Integer key = key(status, type);
+        Prerendered p = _prerendered.get(key);
+        
+        // whatever the page was rendered with, to tell when it needs rendering
+        // again.  for HTML that's the template, which is only looked up again
+        // once the template store's version has moved on (or can't be tracked)
+        DumbTemplate t = null;
+        Object source;
+        long version = -1;
+        if (type == MimeType.HTML) {
+            version = Templates.version(templateStore());
+            if (p != null && version >= 0 && p.version == version) return p.toResponse(status, type);
+            t = templateFor(templateName(status));
+            source = t;
+        } else {
+            source = (type == MimeType.JSON) ? Json.codec() : type;
+        }
+        
+        if (p != null && p.source == source) {
+            if (p.version != version) _prerendered.put(key, p = new Prerendered(p.body, source, version));
+        } else {
+            String stext = statusText(status);
+            String page;
+            if (type == MimeType.JSON) {
+                page = json(status, stext, null);
+            } else if (type == MimeType.TEXT) {
+                page = text(status, stext, null);
+            } else {
+                Map<String, Object> ctx = newContext();
+                html(status, stext, null, ctx);
+                page = t.render(ctx);
+            }
+            p = new Prerendered(page, source, version);
+            _prerendered.put(key, p);
+        }
+        return p.toResponse(status, type);
+    }
+    
+    private static Integer key(int status, MimeType type) {
+        return status * 3 + (type == MimeType.JSON ? 1 : type == MimeType.TEXT ? 2 : 0);
+    }
+    
+    private static String statusText(int status) {
+        ResourceBundle rb = Boom.r("httpstatus");
+        return rb.getString(String.format("SC_%d", status));
+    }
+    
+    private static String templateName(int status) {
+        return String.format("/boom/status/%d.html", status);
+    }
+    
+    // the status-specific template if there is one, else the default
+    private static DumbTemplate templateFor(String name) {
+        DumbTemplate t = template(name);
+        return (t == null) ? template(DEFAULT_TEMPLATE) : t;
+    }
+    
+    private static String json(int status, String stext, String body) {
+        Map<String, Object> result = new java.util.TreeMap<>();
+        result.put("status", status);
+        result.put("status_desc", stext);
+        result.put("message", body);
+        return Json.toJson(result);
+    }
+    
+    private static String text(int status, String stext, String body) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Status: ");
+        sb.append(status);
+        sb.append("\nStatus Description: ");
+        sb.append(stext == null ? "" : stext);
+        sb.append("\nMessage: ");
+        sb.append(body);
+        sb.append("\n");
+        return sb.toString();
+    }
+    
+    private static void html(int status, String stext, String body, Map<String, Object> ctx) {
+        ctx.put("status", status);
+        ctx.put("title", String.format("%d %s", status, stext == null ? "" : stext));
+        ctx.put("body", body == null ? stext : body);
+    }
+    
     private static boolean isServerError(int status) {
         return status >= 500 && status <= 599;
     }
     
-    private static void log(int status, Exception e) {
-        log.error(status + ": " + e.getMessage(), e);
+    private static class Prerendered {
+        final ByteBuffer body;
+        final Object source;
+        final long version; // of the template store, or -1
+        
+        Prerendered(String page, Object source, long version) {
+            this(ByteBuffer.wrap((page == null ? "" : page).getBytes(StandardCharsets.UTF_8)), source, version);
+        }
+        
+        Prerendered(ByteBuffer body, Object source, long version) {
+            this.body = body;
+            this.source = source;
+            this.version = version;
+        }
+        
+        BoomResponse toResponse(int status, MimeType type) {
+            return new BoomResponse(body).status(status).as(type);
+        }
     }
 }
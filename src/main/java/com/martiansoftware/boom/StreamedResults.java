@@ -0,0 +1,145 @@
+package com.martiansoftware.boom;
+
+import static com.martiansoftware.boom.Boom.request;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a Stream or Iterator returned by a route to the response as it's
+ * consumed, either as NDJSON (one compact JSON value per line) for clients
+ * that ask for application/x-ndjson, or else as a JSON array.  The response is
+ * chunked and flushed periodically, so the client sees results as they're
+ * produced and the full result set is never held in memory.
+ *
+ * If the client goes away, iteration stops.  If the Stream or Iterator fails
+ * partway through, the connection is aborted rather than ended normally, so
+ * that the client can't mistake a truncated result for a complete one.
+ * Streams are closed when done, as are Iterators that are AutoCloseable.
+ *
+ * @author mlamb
+ */
+class StreamedResults {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamedResults.class);
+
+    private static final Negotiator _negotiator = new Negotiator(MimeType.JSON, MimeType.NDJSON);
+
+    // flush after this many values, or this long since the last flush,
+    // whichever comes first
+    private static final int FLUSH_EVERY = 256;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static final int BUFFER_SIZE = 8192;
+    
+    private static final Object NOTHING = new Object();
+
+    private StreamedResults() {}
+
+    static boolean isStreamable(Object result) {
+        return result instanceof Stream || result instanceof Iterator;
+    }
+
+    /**
+     * Creates a response that streams a route's result
+     * @param result a Stream or Iterator
+     * @return a BoomResponse that will stream the result
+     */
+    static BoomResponse of(Object result) {
+        Iterator<?> it;
+        AutoCloseable closer;
+        if (result instanceof Stream) {
+            Stream<?> s = (Stream<?>) result;
+            it = s.iterator();
+            closer = s;
+        } else {
+            it = (Iterator<?>) result;
+            closer = (result instanceof AutoCloseable) ? (AutoCloseable) result : null;
+        }
+
+        // fetch the first value up front, so that a query that fails outright
+        // still fails before the response is under way and gets a proper status
+        Object first;
+        try {
+            first = it.hasNext() ? it.next() : NOTHING;
+        } catch (RuntimeException e) {
+            close(closer);
+            throw e;
+        }
+        
+        MimeType type = _negotiator.choose(request().headers("Accept"));
+        boolean ndjson = (type == MimeType.NDJSON);
+        HttpServletRequest raw = request().raw();
+        return new BoomResponse(out -> {
+            try {
+                write(first, it, ndjson, out, raw);
+            } finally {
+                close(closer);
+            }
+        }).as(ndjson ? MimeType.NDJSON : MimeType.JSON);
+    }
+
+    private static void write(Object first, Iterator<?> it, boolean ndjson, OutputStream out, HttpServletRequest raw) {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        long count = 0;
+        try {
+            if (!ndjson) w.write('[');
+            long lastFlush = System.nanoTime();
+            boolean more = (first != NOTHING);
+            Object o = first;
+            while (more) {
+                if (!ndjson && count > 0) w.write(',');
+                Json.toCompactJson(o, w);
+                if (ndjson) w.write('\n');
+                ++count;
+                if (count % FLUSH_EVERY == 0 || System.nanoTime() - lastFlush > FLUSH_INTERVAL_NANOS) {
+                    w.flush();
+                    out.flush();
+                    lastFlush = System.nanoTime();
+                }
+                more = it.hasNext();
+                if (more) o = it.next();
+            }
+            if (!ndjson) w.write(']');
+            w.flush();
+        } catch (IOException e) {
+            log.debug("Stopped streaming after {} values, client went away: {}", count, e.getMessage());
+            try {
+                out.close(); // so that closing it again afterwards is a no-op
+            } catch (IOException alreadyBroken) {}
+        } catch (RuntimeException e) {
+            // the response is already under way, so there's no status to send.
+            // ending it normally would pass off a truncated result as complete.
+            log.error("Stopped streaming after " + count + " values: " + e.getMessage(), e);
+            abort(raw, out, e);
+        }
+    }
+
+    private static void abort(HttpServletRequest raw, OutputStream out, RuntimeException e) {
+        Request base = Request.getBaseRequest(raw);
+        if (base == null) throw e; // not jetty; the best we can do is not close the stream cleanly
+        base.getHttpChannel().abort(e);
+        try {
+            out.close(); // so that closing it again afterwards is a no-op
+        } catch (IOException alreadyBroken) {}
+    }
+
+    private static void close(AutoCloseable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (Exception e) {
+            log.warn("Unable to close streamed result: " + e.getMessage(), e);
+        }
+    }
+}
@@ -5,8 +5,20 @@ import com.martiansoftware.dumbtemplates.DumbLazyFileTemplateStore;
 import com.martiansoftware.dumbtemplates.DumbLogger;
 import com.martiansoftware.dumbtemplates.DumbTemplate;
 import com.martiansoftware.dumbtemplates.DumbTemplateStore;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +29,9 @@ import org.slf4j.LoggerFactory;
 class Templates {
     private static final Logger log = LoggerFactory.getLogger(Templates.class);
     
+    private static final String MAIN_ROOT = "/templates";
+    private static final String DEFAULTS_ROOT = "/boom-default-templates";
+    
     static DumbTemplateStore init() {
         // dumbtemplate logging is intentionally... dumb.
         // emsmarten it a little.
@@ -35,30 +50,163 @@ class Templates {
             }
         };
 
+        // can be set by environment var or system property.  system property setting wins if set.
+        String dir = System.getProperty(Constants.TEMPLATES_ENV_OR_PROPERTY, System.getenv(Constants.TEMPLATES_ENV_OR_PROPERTY));
+        
         DumbTemplateStore main;
         if (Boom.debug()) {
             main = new DumbLazyFileTemplateStore(new java.io.File("src/main/resources/templates"), d);            
+        } else if (dir != null && !dir.trim().isEmpty()) {
+            main = new FileTemplateStore(Paths.get(dir.trim()));
         } else {
-            main = new DumbLazyClasspathTemplateStore("/templates", d);            
+            main = new DumbLazyClasspathTemplateStore(MAIN_ROOT, d);            
         }        
-        DumbTemplateStore defaults = new DumbLazyClasspathTemplateStore("/boom-default-templates", d);
+        DumbTemplateStore defaults = new DumbLazyClasspathTemplateStore(DEFAULTS_ROOT, d);
 
-        return new DumbTemplateStoreWithDefaults(main, defaults);
+        DumbTemplateStore result = new DumbTemplateStoreWithDefaults(main, defaults);
+        if (main instanceof FileTemplateStore) ((FileTemplateStore) main).includesFrom(result);
+        return result;
     }
 
+    /**
+     * Parses every template up front, in parallel, so that broken templates
+     * are found at startup and first requests don't pay for parsing.  In debug
+     * mode templates under /templates are left alone, since they're reloaded
+     * from the source tree as they change.
+     * @param store the store created by init()
+     * @throws IllegalStateException naming every template that couldn't be loaded
+     */
+    static void preload(DumbTemplateStore store) {
+        if (!(store instanceof DumbTemplateStoreWithDefaults)) return;
+        ((DumbTemplateStoreWithDefaults) store).preload();
+    }
+    
+    /**
+     * Returns a number that changes whenever any template in a store might
+     * have changed, so that something derived from templates can be reused
+     * without looking them up again
+     * @param store the store created by init()
+     * @return the version of the store's templates, or -1 if that can't be
+     * tracked (e.g. in debug mode, where templates are checked as they're used)
+     */
+    static long version(DumbTemplateStore store) {
+        return (store instanceof DumbTemplateStoreWithDefaults) ? ((DumbTemplateStoreWithDefaults) store).version() : -1;
+    }
+    
+    // returns a store holding every template under root, falling back to the
+    // original store for anything else (including templates added later).
+    // includes are looked up in the includes store.
+    private static DumbTemplateStore preload(String root, DumbTemplateStore fallback, DumbTemplateStore includes, List<String> failures) {
+        ClasspathIndex index = ClasspathIndex.scan(Templates.class.getClassLoader(), root);
+        if (index == null) {
+            log.warn("Unable to find templates under {}; they will be loaded as needed", root);
+            return fallback;
+        }
+        Map<String, DumbTemplate> templates = new ConcurrentHashMap<>();
+        index.paths().parallelStream().forEach(path -> {
+            String name = path.substring(root.length());
+            try {
+                templates.put(name, parse(name, read(index.get(path)), includes, null));
+            } catch (IOException | RuntimeException e) {
+                log.error("Unable to load template " + path + ": " + e.getMessage(), e);
+                synchronized(failures) { failures.add(path); }
+            }
+        });
+        log.debug("Parsed {} templates under {}", templates.size(), root);
+        return new PreloadedTemplateStore(templates, fallback);
+    }
+    
+    /**
+     * Parses a single template
+     * @param name the name of the template
+     * @param def the template itself
+     * @param includes where the templates it includes are to be found
+     * @param included if not null, receives the names of the templates it includes
+     * @throws IOException if the template can't be parsed
+     */
+    static DumbTemplate parse(String name, String def, DumbTemplateStore includes, Set<String> included) throws IOException {
+        return new ParsingStore(includes, included).parse(name, def);
+    }
+    
+    /**
+     * Parses a template on behalf of another store.  A DumbTemplate looks up
+     * the templates it includes in the store that parsed it, so those lookups
+     * are passed on to the store the template really belongs to.
+     */
+    private static class ParsingStore extends DumbTemplateStore {
+        private final DumbTemplateStore _includes;
+        private final Set<String> _included;
+        ParsingStore(DumbTemplateStore includes, Set<String> included) {
+            _includes = includes;
+            _included = included;
+        }
+        DumbTemplate parse(String name, String def) throws IOException {
+            super.add(name, def);
+            DumbTemplate t = super.get(name);
+            if (t == null) throw new IOException("template could not be parsed");
+            return t;
+        }
+        @Override public DumbTemplate get(String templateName) {
+            if (_included != null) _included.add(templateName);
+            return _includes.get(templateName);
+        }
+    }
+    
+    private static String read(ClasspathIndex.Entry e) throws IOException {
+        if (e.file != null) return new String(Files.readAllBytes(e.file.toPath()), StandardCharsets.UTF_8);
+        try (InputStream in = e.open()) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream((int) Math.max(0, e.size));
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) bout.write(buf, 0, n);
+            return new String(bout.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    private static class PreloadedTemplateStore extends DumbTemplateStore {
+        private final Map<String, DumbTemplate> _templates;
+        private final DumbTemplateStore _fallback;
+        PreloadedTemplateStore(Map<String, DumbTemplate> templates, DumbTemplateStore fallback) {
+            _templates = templates;
+            _fallback = fallback;
+        }
+        @Override public DumbTemplateStore add(String templateName, String templateDef) {
+            _fallback.add(templateName, templateDef);
+            _templates.remove(key(templateName));
+            return this;
+        }
+        @Override public DumbTemplateStore add(String templateName, Reader templateDef) throws IOException {        
+            _fallback.add(templateName, templateDef);
+            _templates.remove(key(templateName));
+            return this;
+        }
+        @Override public DumbTemplate get(String templateName) {
+            DumbTemplate result = _templates.get(key(templateName));
+            return (result == null) ? _fallback.get(templateName) : result;
+        }
+        // templates are asked for with or without the leading slash
+        private static String key(String templateName) {
+            return templateName.startsWith("/") ? templateName : "/" + templateName;
+        }
+    }
+    
     private static class DumbTemplateStoreWithDefaults extends DumbTemplateStore {
-        private final DumbTemplateStore _main;
-        private final DumbTemplateStore _defaults;
+        private volatile DumbTemplateStore _main;
+        private volatile DumbTemplateStore _defaults;
+        private boolean _preloaded = false;
+        private final AtomicLong _changes = new AtomicLong(); // templates added, and preloading
         DumbTemplateStoreWithDefaults(DumbTemplateStore main, DumbTemplateStore defaults) {
             _main = main;
             _defaults = defaults;
         }
         @Override public DumbTemplateStore add(String templateName, String templateDef) {
             _main.add(templateName, templateDef);
+            _changes.incrementAndGet();
             return this;
         }
         @Override public DumbTemplateStore add(String templateName, Reader templateDef) throws IOException {        
             _main.add(templateName, templateDef);
+            _changes.incrementAndGet();
             return this;
         }
         @Override public DumbTemplate get(String templateName) {
@@ -66,5 +214,43 @@ class Templates {
             return (result == null) ? _defaults.get(templateName) : result;
         }        
         
+        // the defaults are on the classpath, so only the main store can change
+        long version() {
+            DumbTemplateStore main = _main;
+            long v;
+            if (main instanceof FileTemplateStore) {
+                v = ((FileTemplateStore) main).version();
+            } else if (main instanceof DumbLazyClasspathTemplateStore || main instanceof PreloadedTemplateStore) {
+                v = 0;
+            } else {
+                return -1;
+            }
+            return (v < 0) ? -1 : v + _changes.get();
+        }
+        
+        synchronized void preload() {
+            if (_preloaded) return;
+            long start = System.currentTimeMillis();
+            List<String> failures = new ArrayList<>();
+            DumbTemplateStore main = _main;
+            if (main instanceof FileTemplateStore) {
+                ((FileTemplateStore) main).preload(failures);
+            } else if (main instanceof DumbLazyClasspathTemplateStore) {
+                main = Templates.preload(MAIN_ROOT, main, this, failures);
+            }
+            // includes are found the same way as any other template, so
+            // default templates include overrides where there are any
+            DumbTemplateStore defaults = Templates.preload(DEFAULTS_ROOT, _defaults, this, failures);
+            if (!failures.isEmpty()) {
+                Collections.sort(failures);
+                throw new IllegalStateException("Unable to load templates: " + String.join(", ", failures));
+            }
+            _main = main;
+            _defaults = defaults;
+            _preloaded = true;
+            _changes.incrementAndGet();
+            log.info("Preloaded templates in {}ms", System.currentTimeMillis() - start);
+        }
+        
     }
 }
@@ -0,0 +1,78 @@
+package com.martiansoftware.boom;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends text (e.g. a rendered template) as UTF-8 by encoding it straight into
+ * a buffer that each thread reuses, instead of copying all of it into a new
+ * byte[] first.  If the encoded text fits in the buffer, Content-Length is
+ * set.  Longer text is sent chunked, one buffer at a time.
+ *
+ * The response is committed and closed here, so headers can't be added to it
+ * afterwards (e.g. by after filters).  Since the bytes are always UTF-8, the
+ * charset is always declared; if no Content-Type was set, text/html is used,
+ * as spark would.
+ *
+ * @author mlamb
+ */
+class TextBody {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final String DEFAULT_TYPE = "text/html; charset=utf-8";
+
+    private static final ThreadLocal<TextBody> _perThread = ThreadLocal.withInitial(TextBody::new);
+
+    private final CharsetEncoder _encoder = StandardCharsets.UTF_8.newEncoder()
+                                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer _buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private TextBody() {}
+
+    /**
+     * Writes text to a response and closes its output stream
+     * @param text the text to send
+     * @param raw the response
+     * @throws IOException if the response can't be written
+     */
+    static void send(CharSequence text, HttpServletResponse raw) throws IOException {
+        _perThread.get().write(text, raw);
+    }
+
+    private void write(CharSequence text, HttpServletResponse raw) throws IOException {
+        if (raw.getContentType() == null) raw.setContentType(DEFAULT_TYPE);
+        else raw.setCharacterEncoding("utf-8"); // adds or replaces the charset in the content type
+        CharBuffer in = CharBuffer.wrap(text);
+        OutputStream out = null;
+        _encoder.reset();
+        _buf.clear();
+        try {
+            while (_encoder.encode(in, _buf, true).isOverflow()) out = drain(out, raw);
+            while (_encoder.flush(_buf).isOverflow()) out = drain(out, raw);
+            if (out == null) {
+                // it all fit
+                raw.setContentLength(_buf.position());
+                out = raw.getOutputStream();
+            }
+            out.write(_buf.array(), 0, _buf.position());
+        } finally {
+            _buf.clear();
+            if (out == null) out = raw.getOutputStream();
+            out.close();
+        }
+    }
+
+    private OutputStream drain(OutputStream out, HttpServletResponse raw) throws IOException {
+        if (out == null) out = raw.getOutputStream();
+        out.write(_buf.array(), 0, _buf.position());
+        _buf.clear();
+        return out;
+    }
+}
@@ -0,0 +1,71 @@
+package com.martiansoftware.boom;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates executors for Boom.fork().  Virtual threads are used if the running
+ * JDK has them (Boom itself still targets Java 8, so they're looked up
+ * reflectively); otherwise a cached pool of daemon platform threads is used.
+ *
+ * @author mlamb
+ */
+class VirtualThreads {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findFactory();
+
+    private VirtualThreads() {}
+
+    private static Method findFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Are virtual threads available in this JVM?
+     * @return true if virtual threads are available in this JVM
+     */
+    static boolean available() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Returns a new executor that runs each task on its own virtual thread,
+     * falling back to platformThreads() if virtual threads aren't available
+     * @return a new executor
+     */
+    static ExecutorService virtualThreads() {
+        if (available()) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Unable to create virtual thread executor: " + e.getMessage(), e);
+            }
+        }
+        return platformThreads();
+    }
+
+    /**
+     * Returns a new executor backed by a cached pool of daemon threads
+     * @return a new executor
+     */
+    static ExecutorService platformThreads() {
+        AtomicInteger n = new AtomicInteger();
+        ThreadFactory tf = r -> {
+            Thread t = new Thread(r, "boom-fork-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return Executors.newCachedThreadPool(tf);
+    }
+}
@@ -0,0 +1,94 @@
+package com.martiansoftware.boom;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author mlamb
+ */
+public class ByteRangesTest {
+
+    private static void assertRanges(List<long[]> actual, long[]... expected) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; ++i) assertArrayEquals(expected[i], actual.get(i));
+    }
+
+    private static long[] r(long first, long last) {
+        return new long[] { first, last };
+    }
+
+    @Test
+    public void singleRanges() {
+        assertRanges(ByteRanges.parse("bytes=0-99", 1000), r(0, 99));
+        assertRanges(ByteRanges.parse("bytes=500-", 1000), r(500, 999));
+        assertRanges(ByteRanges.parse("bytes=-100", 1000), r(900, 999));
+        assertRanges(ByteRanges.parse("bytes=-5000", 1000), r(0, 999));
+        assertRanges(ByteRanges.parse("bytes=900-5000", 1000), r(900, 999));
+        assertRanges(ByteRanges.parse(" Bytes=1-2 ", 1000), r(1, 2));
+    }
+
+    @Test
+    public void multipleRangesAreSortedAndCoalesced() {
+        assertRanges(ByteRanges.parse("bytes=500-599,0-99", 1000), r(0, 99), r(500, 599));
+        assertRanges(ByteRanges.parse("bytes=0-99,50-149", 1000), r(0, 149));
+        assertRanges(ByteRanges.parse("bytes=0-99,100-199", 1000), r(0, 199));
+        assertRanges(ByteRanges.parse("bytes=0-0, -1, 10-19, 2000-3000", 1000), r(0, 0), r(10, 19), r(999, 999));
+    }
+
+    @Test
+    public void unsatisfiableRangesAreEmpty() {
+        // an empty list means 416 Range Not Satisfiable
+        assertTrue(ByteRanges.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRanges.parse("bytes=1000-2000,5000-", 1000).isEmpty());
+        assertTrue(ByteRanges.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRanges.parse("bytes=0-10", 0).isEmpty());
+    }
+
+    @Test
+    public void badHeadersAreIgnored() {
+        // null means send the whole body
+        assertNull(ByteRanges.parse(null, 1000));
+        assertNull(ByteRanges.parse("items=0-10", 1000));
+        assertNull(ByteRanges.parse("bytes=10", 1000));
+        assertNull(ByteRanges.parse("bytes=x-10", 1000));
+        assertNull(ByteRanges.parse("bytes=10-5", 1000));
+        assertNull(ByteRanges.parse("bytes=0-1,a-b", 1000));
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 17; ++i) many.append(',').append(i * 2).append('-').append(i * 2);
+        assertNull(ByteRanges.parse(many.toString(), 1000));
+    }
+
+    @Test
+    public void ifRange() {
+        long lm = 1500000000000L;
+        String tag = BoomResponse.etagFor(1000, lm);
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lm).atOffset(ZoneOffset.UTC));
+        String earlier = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lm - 5000).atOffset(ZoneOffset.UTC));
+
+        assertTrue(BoomResponse.ifRange(request(null), tag, lm));
+        assertTrue(BoomResponse.ifRange(request(tag), tag, lm));
+        assertFalse(BoomResponse.ifRange(request("\"other\""), tag, lm));
+        assertFalse("If-Range needs a strong match", BoomResponse.ifRange(request("W/" + tag), tag, lm));
+        assertFalse(BoomResponse.ifRange(request(tag), null, lm));
+        assertTrue(BoomResponse.ifRange(request(date), tag, lm + 999)); // http dates have one-second resolution
+        assertFalse(BoomResponse.ifRange(request(earlier), tag, lm));
+        assertFalse(BoomResponse.ifRange(request(date), tag, -1));
+        assertFalse(BoomResponse.ifRange(request("not a date"), tag, lm));
+    }
+
+    private static HttpServletRequest request(String ifRange) {
+        FakeRequest r = new FakeRequest();
+        if (ifRange != null) r.header("If-Range", ifRange);
+        return r.build();
+    }
+}
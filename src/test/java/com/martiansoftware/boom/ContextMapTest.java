@@ -0,0 +1,92 @@
+package com.martiansoftware.boom;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author mlamb
+ */
+public class ContextMapTest {
+
+    @Test
+    public void behavesLikeAHashMap() {
+        Random r = new Random(42);
+        ContextMap m = new ContextMap(4);
+        Map<String, Object> expected = new HashMap<>();
+        for (int i = 0; i < 10000; ++i) {
+            String key = "k" + r.nextInt(50);
+            if (r.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), m.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), m.put(key, i));
+            }
+            assertEquals(expected.size(), m.size());
+        }
+        assertEquals(expected, m);
+        m.clear();
+        assertTrue(m.isEmpty());
+        assertNull(m.get("k1"));
+    }
+
+    @Test
+    public void removesWhileIterating() {
+        Random r = new Random(7);
+        for (int round = 0; round < 500; ++round) {
+            // a small table with many keys, so probe sequences collide and wrap around
+            ContextMap m = new ContextMap(4);
+            Map<String, Object> expected = new HashMap<>();
+            int n = 1 + r.nextInt(40);
+            for (int i = 0; i < n; ++i) {
+                String key = Integer.toString(r.nextInt(1000), 36);
+                m.put(key, i);
+                expected.put(key, i);
+            }
+            int size = m.size();
+            Set<String> seen = new HashSet<>();
+            for (Iterator<Map.Entry<String, Object>> it = m.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Object> e = it.next();
+                assertTrue("visited twice: " + e.getKey(), seen.add(e.getKey()));
+                assertEquals(expected.get(e.getKey()), e.getValue());
+                if (r.nextBoolean()) {
+                    it.remove();
+                    expected.remove(e.getKey());
+                }
+            }
+            assertEquals(size, seen.size());
+            assertEquals(expected, m);
+            for (String key : expected.keySet()) assertEquals(expected.get(key), m.get(key));
+        }
+    }
+
+    @Test
+    public void collectionViewsSupportRemoval() {
+        ContextMap m = new ContextMap();
+        for (int i = 0; i < 20; ++i) m.put("k" + i, i);
+        assertTrue(m.keySet().removeIf(k -> k.endsWith("1")));
+        assertFalse(m.containsKey("k1"));
+        assertFalse(m.containsKey("k11"));
+        assertTrue(m.entrySet().removeIf(e -> ((Integer) e.getValue()) % 2 == 0));
+        assertTrue(m.values().remove(3));
+        assertEquals(new HashSet<>(java.util.Arrays.asList(5, 7, 9, 13, 15, 17, 19)), new HashSet<>(m.values()));
+    }
+
+    @Test
+    public void setValueWritesThrough() {
+        ContextMap m = new ContextMap();
+        m.put("a", 1);
+        m.put("b", 2);
+        for (Map.Entry<String, Object> e : m.entrySet()) e.setValue(((Integer) e.getValue()) * 10);
+        assertEquals(10, m.get("a"));
+        assertEquals(20, m.get("b"));
+    }
+}
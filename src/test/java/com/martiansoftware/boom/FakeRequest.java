@@ -0,0 +1,102 @@
+package com.martiansoftware.boom;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Just enough of an HttpServletRequest for testing code that reads headers
+ * and bodies, without a servlet container
+ *
+ * @author mlamb
+ */
+class FakeRequest {
+
+    private final Map<String, String> _headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private byte[] _body = new byte[0];
+    private String _encoding = null;
+    private boolean _chunked = false;
+    private boolean _disconnected = false;
+
+    FakeRequest header(String name, String value) {
+        _headers.put(name, value);
+        return this;
+    }
+
+    FakeRequest body(String body) {
+        _body = body.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    FakeRequest encoding(String encoding) {
+        _encoding = encoding;
+        return this;
+    }
+
+    /**
+     * Leaves out the Content-Length, as for a chunked request body
+     */
+    FakeRequest chunked() {
+        _chunked = true;
+        return this;
+    }
+
+    /**
+     * Fails reading past the body, as when the client goes away mid-request
+     */
+    FakeRequest disconnected() {
+        _disconnected = true;
+        return this;
+    }
+
+    HttpServletRequest build() {
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getHeader": return _headers.get((String) args[0]);
+                case "getDateHeader": return dateHeader((String) args[0]);
+                case "getContentLength": return _chunked ? -1 : _body.length;
+                case "getContentLengthLong": return _chunked ? -1L : (long) _body.length;
+                case "getCharacterEncoding": return _encoding;
+                case "getInputStream": return inputStream(new ByteArrayInputStream(_body), _disconnected);
+                case "toString": return "FakeRequest" + _headers;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private long dateHeader(String name) {
+        String value = _headers.get(name);
+        if (value == null) return -1;
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(value, e);
+        }
+    }
+
+    private static ServletInputStream inputStream(InputStream in, boolean disconnected) {
+        return new ServletInputStream() {
+            @Override public int read() throws IOException { return check(in.read()); }
+            @Override public int read(byte[] b, int off, int len) throws IOException { return check(in.read(b, off, len)); }
+            private int check(int n) throws IOException {
+                if (n < 0 && disconnected) throw new EOFException("client went away");
+                return n;
+            }
+            public boolean isFinished() { return false; }
+            public boolean isReady() { return true; }
+            public void setReadListener(ReadListener l) { throw new UnsupportedOperationException(); }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package com.martiansoftware.boom;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Just enough of an HttpServletResponse for testing code that writes
+ * responses, without a servlet container
+ *
+ * @author mlamb
+ */
+class FakeResponse {
+
+    final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    String contentType = null;
+    long contentLength = -1;
+    boolean closed = false;
+
+    FakeResponse type(String type) {
+        contentType = type;
+        return this;
+    }
+
+    String text() {
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    HttpServletResponse build() {
+        ServletOutputStream out = new ServletOutputStream() {
+            @Override public void write(int b) { body.write(b); }
+            @Override public void write(byte[] b, int off, int len) { body.write(b, off, len); }
+            @Override public void close() { closed = true; }
+            public boolean isReady() { return true; }
+            public void setWriteListener(WriteListener l) { throw new UnsupportedOperationException(); }
+        };
+        return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getContentType": return contentType;
+                case "setContentType": contentType = (String) args[0]; return null;
+                case "setCharacterEncoding":
+                    String base = (contentType == null) ? null : contentType.replaceAll(";\\s*charset=[^;]*", "");
+                    if (base != null) contentType = base + ";charset=" + args[0];
+                    return null;
+                case "setContentLength": contentLength = (Integer) args[0]; return null;
+                case "setContentLengthLong": contentLength = (Long) args[0]; return null;
+                case "setHeader": headers.put((String) args[0], (String) args[1]); return null;
+                case "getOutputStream": return out;
+                case "toString": return "FakeResponse" + headers;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
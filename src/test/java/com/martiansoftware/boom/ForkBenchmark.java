@@ -0,0 +1,91 @@
+package com.martiansoftware.boom;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long it takes to get through a burst of concurrent requests whose
+ * handlers each block for 50ms, on a pool of platform threads the size of
+ * Jetty's default, and through Boom.fork() on its platform threads and on
+ * virtual threads (JDK 21 or later; elsewhere the "virtual" case falls back
+ * to platform threads too).
+ * 
+ * Unlike the other benchmarks this one loads Boom, which starts Spark on its
+ * default port, just as it would in an app.
+ *
+ * @author mlamb
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ForkBenchmark {
+
+    private static final long BLOCK_MILLIS = 50;
+    private static final int JETTY_MAX_THREADS = 200;
+
+    @Param({"200", "2000"})
+    public int requests;
+
+    @Param({"jetty", "platform", "virtual"})
+    public String threads;
+
+    private ExecutorService _executor; // only for the "jetty" case; the others use fork()
+
+    @Setup
+    public void setup() {
+        if ("jetty".equals(threads)) {
+            _executor = Executors.newFixedThreadPool(JETTY_MAX_THREADS);
+        } else {
+            Boom.virtualThreads("virtual".equals(threads));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (_executor != null) _executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; ++i) {
+            if (_executor != null) {
+                _executor.execute(() -> {
+                    block();
+                    done.countDown();
+                });
+            } else {
+                Boom.fork(() -> {
+                    block();
+                    return null;
+                }).whenComplete((v, t) -> done.countDown());
+            }
+        }
+        done.await();
+    }
+
+    private static void block() {
+        try {
+            Thread.sleep(BLOCK_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.martiansoftware.boom;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing a typical JSON response (a page of small DTOs) through the codec
+ * Json uses, with Gson's reflective adapter and with a hand-written adapter
+ * registered the way Json.register() registers them.
+ *
+ * @author mlamb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonBenchmark {
+
+    public static class Item {
+        long id;
+        String name;
+        double price;
+        boolean available;
+        List<String> tags;
+    }
+
+    static class ItemAdapter extends TypeAdapter<Item> {
+        @Override public void write(JsonWriter out, Item item) throws IOException {
+            if (item == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(item.id);
+            out.name("name").value(item.name);
+            out.name("price").value(item.price);
+            out.name("available").value(item.available);
+            out.name("tags").beginArray();
+            for (String tag : item.tags) out.value(tag);
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override public Item read(JsonReader in) throws IOException {
+            throw new UnsupportedOperationException("not benchmarked");
+        }
+    }
+
+    private final CharArrayWriter _out = new CharArrayWriter(8192);
+    private JsonCodec _reflective;
+    private JsonCodec _registered;
+    private List<Item> _page;
+
+    @Setup
+    public void setup() {
+        _reflective = new GsonCodec(new GsonBuilder().create());
+        Gson registered = new GsonBuilder().registerTypeAdapter(Item.class, new ItemAdapter()).create();
+        _registered = new GsonCodec(registered);
+        _page = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            Item item = new Item();
+            item.id = 1000 + i;
+            item.name = "Item number " + i;
+            item.price = 9.99 + i;
+            item.available = (i % 3 != 0);
+            item.tags = Arrays.asList("new", "sale", "tag" + i);
+            _page.add(item);
+        }
+    }
+
+    @Benchmark
+    public int reflective() throws IOException {
+        return write(_reflective);
+    }
+
+    @Benchmark
+    public int registered() throws IOException {
+        return write(_registered);
+    }
+
+    private int write(JsonCodec codec) throws IOException {
+        _out.reset();
+        codec.write(_page, _out);
+        return _out.size();
+    }
+}
@@ -0,0 +1,153 @@
+package com.martiansoftware.boom;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Test;
+import spark.HaltException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Request body binding and its size and depth limits
+ *
+ * @author mlamb
+ */
+public class JsonBodyTest {
+
+    public static class Thing {
+        String name;
+        int count;
+    }
+
+    @After
+    public void resetLimits() {
+        Json.postBodyLimits(Json.DEFAULT_MAX_BODY_BYTES, Json.DEFAULT_MAX_DEPTH);
+    }
+
+    private static String nested(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; ++i) sb.append('[');
+        for (int i = 0; i < depth; ++i) sb.append(']');
+        return sb.toString();
+    }
+
+    private static void assertHalts(int status, Runnable r) {
+        try {
+            r.run();
+        } catch (HaltException e) {
+            assertEquals(status, e.getStatusCode());
+            return;
+        }
+        fail("expected a halt with status " + status);
+    }
+
+    private static void assertHalts(int status, FakeRequest req) {
+        assertHalts(status, () -> Json.bodyAs(req.build(), Object.class));
+    }
+
+    @Test
+    public void binds() {
+        Thing t = Json.bodyAs(new FakeRequest().body("{\"name\": \"x\", \"count\": 3}").build(), Thing.class);
+        assertEquals("x", t.name);
+        assertEquals(3, t.count);
+        assertNull(Json.bodyAs(new FakeRequest().build(), Thing.class));
+    }
+
+    @Test
+    public void honorsCharset() {
+        FakeRequest req = new FakeRequest().body("{\"name\": \"caf\u00e9\"}").encoding("UTF-8");
+        assertEquals("caf\u00e9", Json.bodyAs(req.build(), Thing.class).name);
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, new FakeRequest().body("{}").encoding("no-such-charset"));
+    }
+
+    @Test
+    public void rejectsMalformedBodies() {
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, new FakeRequest().body("{\"name\": "));
+        FakeRequest wrongType = new FakeRequest().body("{\"count\": \"many\"}");
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, () -> Json.bodyAs(wrongType.build(), Thing.class));
+    }
+
+    @Test
+    public void failedReadsAreNotMalformedJson() {
+        FakeRequest req = new FakeRequest().body("{\"name\": \"x").disconnected();
+        try {
+            Json.bodyAs(req.build(), Thing.class);
+            fail("expected an UncheckedIOException");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void skippingStillLimitsDepth() throws IOException {
+        Json.DepthLimitedReader r = new Json.DepthLimitedReader(new StringReader("[[ ]] [[[ ]]]"), 2);
+        assertEquals(6, r.skip(6));
+        try {
+            r.skip(100);
+            fail("expected the depth limit to be exceeded");
+        } catch (IOException expected) {
+            // skipped the third '['
+        }
+    }
+
+    @Test
+    public void limitsSize() {
+        Json.postBodyLimits(100, Json.DEFAULT_MAX_DEPTH);
+        String big = "{\"name\": \"" + new String(new char[200]).replace('\0', 'x') + "\"}";
+        Json.bodyAs(new FakeRequest().body("{\"name\": \"small\"}").build(), Thing.class);
+        // known up front from the Content-Length, or found out while reading a chunked body
+        assertHalts(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, new FakeRequest().body(big));
+        assertHalts(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, new FakeRequest().body(big).chunked());
+    }
+
+    @Test
+    public void limitsDepth() {
+        Json.postBodyLimits(Json.DEFAULT_MAX_BODY_BYTES, 5);
+        Json.bodyAs(new FakeRequest().body(nested(5)).build(), Object.class);
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, new FakeRequest().body(nested(6)));
+    }
+
+    @Test
+    public void depthIgnoresBracketsInStringsAndComments() {
+        Json.postBodyLimits(Json.DEFAULT_MAX_BODY_BYTES, 5);
+        Json.bodyAs(new FakeRequest().body("[\"[[[[[[\\\"[[[[\", '[[[[[[', '\\'[[[[[[']").build(), Object.class);
+        // brackets that don't count on the way in mustn't count on the way out either
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, new FakeRequest().body("[']]]]]]]]', " + nested(5) + "]"));
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, new FakeRequest().body("# ]]]]]]]]\n" + nested(6)));
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, new FakeRequest().body("/* ]]]]]]]] */" + nested(6)));
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, new FakeRequest().body("// ]]]]]]]]\n" + nested(6)));
+    }
+
+    @Test
+    public void streamsArrayElements() {
+        FakeRequest req = new FakeRequest().body("[{\"name\": \"a\"}, {\"name\": \"b\"}, {\"name\": \"c\"}]");
+        List<String> names = new ArrayList<>();
+        for (Iterator<Thing> it = Json.bodyElements(req.build(), Thing.class); it.hasNext();) names.add(it.next().name);
+        assertEquals(3, names.size());
+        assertEquals("a", names.get(0));
+        assertEquals("c", names.get(2));
+    }
+
+    @Test
+    public void streamedElementsHonorLimits() {
+        Json.postBodyLimits(Json.DEFAULT_MAX_BODY_BYTES, 2);
+        FakeRequest deep = new FakeRequest().body("[{\"a\": 1}, {\"b\": [[1]]}]");
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, () -> {
+            for (Iterator<Map> it = Json.bodyElements(deep.build(), Map.class); it.hasNext();) it.next();
+        });
+        
+        Iterator<Thing> bad = Json.bodyElements(new FakeRequest().body("[{\"name\": \"a\"}, {\"name\": ").build(), Thing.class);
+        bad.next();
+        assertHalts(HttpServletResponse.SC_BAD_REQUEST, () -> { while (bad.hasNext()) bad.next(); });
+    }
+}
@@ -0,0 +1,48 @@
+package com.martiansoftware.boom;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MimeType.forFilename() for a known extension, an unknown one, and one
+ * whose enum constant is digit-prefixed (e.g. "_3GP").  Run with
+ * "-prof gc" to confirm that lookups don't allocate.
+ *
+ * @author mlamb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MimeTypeBenchmark {
+
+    // fields rather than constants, so that the lookups can't be folded away
+    public String hit = "scripts/app.min.js";
+    public String miss = "backups/site.unknownext";
+    public String digits = "video/clip.3GP";
+
+    @Benchmark
+    public MimeType hit() {
+        return MimeType.forFilename(hit);
+    }
+
+    @Benchmark
+    public MimeType miss() {
+        return MimeType.forFilename(miss);
+    }
+
+    @Benchmark
+    public MimeType digitPrefixed() {
+        return MimeType.forFilename(digits);
+    }
+}
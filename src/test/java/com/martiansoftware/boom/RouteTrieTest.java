@@ -0,0 +1,167 @@
+package com.martiansoftware.boom;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import spark.Route;
+import spark.route.HttpMethod;
+import spark.utils.MimeParse;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author mlamb
+ */
+public class RouteTrieTest {
+
+    private static Route route() {
+        return (req, rsp) -> null;
+    }
+
+    private static Route find(RouteTrie t, HttpMethod method, String uri) {
+        return find(t, method, uri, null);
+    }
+
+    private static Route find(RouteTrie t, HttpMethod method, String uri, String accept) {
+        RouteTrie.Match m = t.find(method, uri, accept);
+        return (m == null) ? null : m.endpoint.route;
+    }
+
+    @Test
+    public void staticParamAndSplatPaths() {
+        Route root = route(), a = route(), ab = route(), param = route(), splat = route();
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/", null, root)
+                .add(HttpMethod.get, "/a", null, a)
+                .add(HttpMethod.get, "/a/b", null, ab)
+                .add(HttpMethod.get, "/things/:id", null, param)
+                .add(HttpMethod.get, "/files/*", null, splat)
+                .build();
+
+        assertSame(root, find(t, HttpMethod.get, "/"));
+        assertSame(a, find(t, HttpMethod.get, "/a"));
+        assertSame(ab, find(t, HttpMethod.get, "/a/b"));
+        assertSame(param, find(t, HttpMethod.get, "/things/42"));
+        assertSame(splat, find(t, HttpMethod.get, "/files/x"));
+        assertSame(splat, find(t, HttpMethod.get, "/files/x/y/z"));
+        assertNull(find(t, HttpMethod.get, "/a/c"));
+        assertNull(find(t, HttpMethod.get, "/things"));
+        assertNull(find(t, HttpMethod.get, "/things/42/more"));
+        assertNull(find(t, HttpMethod.post, "/a"));
+    }
+
+    @Test
+    public void trailingSlashesAreSignificant() {
+        Route noSlash = route(), slash = route();
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/a", null, noSlash)
+                .add(HttpMethod.get, "/b/", null, slash)
+                .build();
+
+        assertSame(noSlash, find(t, HttpMethod.get, "/a"));
+        assertNull(find(t, HttpMethod.get, "/a/"));
+        assertSame(slash, find(t, HttpMethod.get, "/b/"));
+        assertNull(find(t, HttpMethod.get, "/b"));
+    }
+
+    @Test
+    public void staticBeatsParamBeatsSplat() {
+        Route splat = route(), param = route(), fixed = route();
+        // registered in the opposite order of precedence
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/x/*", null, splat)
+                .add(HttpMethod.get, "/x/:name", null, param)
+                .add(HttpMethod.get, "/x/new", null, fixed)
+                .build();
+
+        assertSame(fixed, find(t, HttpMethod.get, "/x/new"));
+        assertSame(param, find(t, HttpMethod.get, "/x/other"));
+        assertSame(splat, find(t, HttpMethod.get, "/x/other/deeper"));
+    }
+
+    @Test
+    public void paramsAndSplats() {
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/users/:userId/files/*", null, route())
+                .add(HttpMethod.get, "/*/to/*", null, route())
+                .build();
+
+        RouteTrie.Match m = t.find(HttpMethod.get, "/users/bob%20smith/files/a/b.txt", null);
+        assertEquals("bob smith", m.param("userId"));
+        assertEquals("bob smith", m.param(":USERID"));
+        assertEquals("bob smith", m.params().get(":userid"));
+        assertNull(m.param("nope"));
+        assertArrayEquals(new String[] {"a/b.txt"}, m.splat());
+
+        m = t.find(HttpMethod.get, "/from/to/there", null);
+        assertArrayEquals(new String[] {"from", "there"}, m.splat());
+        assertTrue(m.params().isEmpty());
+    }
+
+    @Test
+    public void headFallsBackToGet() {
+        Route get = route(), head = route(), other = route();
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/a", null, get)
+                .add(HttpMethod.get, "/b", null, other)
+                .add(HttpMethod.head, "/b", null, head)
+                .build();
+
+        assertSame(get, find(t, HttpMethod.head, "/a"));
+        assertSame(head, find(t, HttpMethod.head, "/b"));
+        assertSame(other, find(t, HttpMethod.get, "/b"));
+        assertTrue(t.handles(HttpMethod.head));
+        assertTrue(t.handles(HttpMethod.get));
+        assertFalse(t.handles(HttpMethod.post));
+    }
+
+    @Test
+    public void acceptTypes() {
+        Route json = route(), html = route();
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/a", "application/json", json)
+                .add(HttpMethod.get, "/a", "text/html", html)
+                .build();
+
+        assertSame(json, find(t, HttpMethod.get, "/a", "application/json"));
+        assertSame(html, find(t, HttpMethod.get, "/a", "text/html"));
+        assertSame(html, find(t, HttpMethod.get, "/a", "application/json;q=0.5, text/html"));
+        assertNull(find(t, HttpMethod.get, "/a", "image/png"));
+        assertSame("no Accept header picks the first route", json, find(t, HttpMethod.get, "/a", null));
+    }
+
+    @Test
+    public void acceptTiesAreBrokenAsSparkBreaksThem() {
+        Route json = route(), html = route();
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/a", "application/json", json)
+                .add(HttpMethod.get, "/a", "text/html", html)
+                .build();
+        List<String> types = Arrays.asList("application/json", "text/html");
+
+        for (String accept : new String[] {"*/*", "application/json, text/html", "text/html, application/json"}) {
+            String expected = MimeParse.bestMatch(types, accept);
+            assertEquals(accept, expected, t.find(HttpMethod.get, "/a", accept).endpoint.acceptType);
+        }
+    }
+
+    @Test
+    public void firstOfDuplicateRoutesWins() {
+        Route first = route(), second = route();
+        RouteTrie t = new RouteTrie.Builder()
+                .add(HttpMethod.get, "/a", null, first)
+                .add(HttpMethod.get, "/a", null, second)
+                .add(HttpMethod.get, "/b", "text/html", first)
+                .add(HttpMethod.get, "/b", "text/html", second)
+                .build();
+
+        assertSame(first, find(t, HttpMethod.get, "/a"));
+        assertSame(first, find(t, HttpMethod.get, "/a", "text/html"));
+        assertSame(first, find(t, HttpMethod.get, "/b", "text/html"));
+    }
+}
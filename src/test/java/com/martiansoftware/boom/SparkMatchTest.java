@@ -0,0 +1,44 @@
+package com.martiansoftware.boom;
+
+import org.junit.Test;
+import spark.Request;
+import spark.RequestResponseFactory;
+import spark.Route;
+import spark.route.HttpMethod;
+import spark.routematch.RouteMatch;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SparkMatch relies on Spark internals, so this runs it against Spark's own
+ * Request to catch an upgrade that moves them
+ *
+ * @author mlamb
+ */
+public class SparkMatchTest {
+
+    private static final Route NOTHING = (req, rsp) -> null;
+
+    // what spark hands to Boom's dispatcher: a request matched to the catch-all route
+    private static Request dispatched(String uri) {
+        return RequestResponseFactory.create(new RouteMatch(NOTHING, "*", uri, "*/*"), new FakeRequest().build());
+    }
+
+    @Test
+    public void passesParamsToSpark() {
+        Request req = dispatched("/things/42");
+        SparkMatch.apply(req, new RouteTrie.Endpoint(HttpMethod.get, "/things/:id", "*/*", NOTHING), "/things/42");
+        assertEquals("42", req.params("id"));
+        assertEquals("42", req.params(":id"));
+        assertEquals(1, req.params().size());
+    }
+
+    @Test
+    public void passesSplatToSpark() {
+        Request req = dispatched("/files/a/raw");
+        SparkMatch.apply(req, new RouteTrie.Endpoint(HttpMethod.get, "/files/*/raw", "*/*", NOTHING), "/files/a/raw");
+        assertArrayEquals(new String[] { "a" }, req.splat());
+        assertTrue(req.params().isEmpty());
+    }
+}
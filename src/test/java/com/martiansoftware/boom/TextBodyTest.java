@@ -0,0 +1,43 @@
+package com.martiansoftware.boom;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author mlamb
+ */
+public class TextBodyTest {
+
+    @Test
+    public void defaultsToHtmlInUtf8() throws Exception {
+        FakeResponse rsp = new FakeResponse();
+        TextBody.send("caf\u00e9", rsp.build());
+        assertEquals(TextBody.DEFAULT_TYPE, rsp.contentType);
+        assertEquals("caf\u00e9", rsp.text());
+        assertEquals(5, rsp.contentLength);
+        assertTrue(rsp.closed);
+    }
+
+    @Test
+    public void declaresTheCharsetOfAnExistingType() throws Exception {
+        FakeResponse rsp = new FakeResponse().type("text/plain");
+        TextBody.send("x", rsp.build());
+        assertEquals("text/plain;charset=utf-8", rsp.contentType);
+
+        rsp = new FakeResponse().type("text/html; charset=iso-8859-1");
+        TextBody.send("x", rsp.build());
+        assertEquals("text/html;charset=utf-8", rsp.contentType);
+    }
+
+    @Test
+    public void sendsLongTextChunked() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= TextBody.BUFFER_SIZE * 2) sb.append("0123456789\u00e9");
+        FakeResponse rsp = new FakeResponse();
+        TextBody.send(sb, rsp.build());
+        assertEquals(sb.toString(), rsp.text());
+        assertEquals(-1, rsp.contentLength);
+    }
+}